@@ -7,14 +7,13 @@ import android.app.PendingIntent;
 import android.app.Service;
 import android.content.Context;
 import android.content.Intent;
-import android.media.AudioAttributes;
-import android.media.AudioFormat;
+import android.media.AudioDeviceInfo;
 import android.media.AudioManager;
-import android.media.AudioTrack;
 import android.media.session.MediaSession;
 import android.media.session.PlaybackState;
 import android.net.wifi.WifiManager;
 import android.os.Build;
+import android.os.Debug;
 import android.os.Handler;
 import android.os.IBinder;
 import android.os.Looper;
@@ -25,13 +24,22 @@ import android.util.Log;
 
 import androidx.core.app.NotificationCompat;
 
+import java.io.File;
 import java.io.IOException;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
+import java.net.BindException;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.MulticastSocket;
+import java.net.NetworkInterface;
 import java.net.SocketException;
 import java.net.SocketTimeoutException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.locks.LockSupport;
 
 public class AudioService extends Service {
 
@@ -44,22 +52,110 @@ public class AudioService extends Service {
     private static final int SOCKET_TIMEOUT_ACTIVE_MS = 10; // Reduced timeout for active streaming
     private static final int SOCKET_TIMEOUT_SLEEP_MS = 1000; // Longer timeout when sleeping
     private static final long INACTIVITY_TIMEOUT_MS = 5000; // 5 seconds
-
-    private AudioTrack audioTrack;
+    private static final long METRICS_LOG_INTERVAL_MS = 30000; // How often receiver metrics are logged
+    private static final int TRACE_RING_SLOTS = 256; // Packets buffered between the network thread and the trace writer
+    private static final long SOCKET_REOPEN_INTERVAL_MS = 500; // Minimum time between socket rebuild attempts
+    private static final int SOCKET_BUFFER_INITIAL_BYTES = 512 * 1024; // Starting SO_RCVBUF request
+    private static final int SOCKET_BUFFER_MIN_BYTES = 64 * 1024;
+    private static final int SOCKET_BUFFER_MAX_BYTES = 4 * 1024 * 1024;
+    private static final long SOCKET_STATS_SAMPLE_INTERVAL_MS = 250; // How often /proc/net/udp is read
+    private static final long SOCKET_BUFFER_TUNE_INTERVAL_MS = 5000; // Window length for SO_RCVBUF adjustments
+    private static final long BURST_GAP_NANOS = 1000000; // Packets arriving closer together than this are one burst
+    private static final int PACKET_BUFFER_SIZE = 4096; // Largest datagram we accept
+    private static final int HANDOFF_QUEUE_SLOTS = 64; // Packets buffered between the receive and render threads
+    private static final long REPLAY_BACKOFF_NANOS = 100000; // Trace replay wait when the render thread is behind
+    private static final long MAX_CADENCE_GAP_NANOS = 100000000; // Gaps longer than this aren't counted as wakeup latency
+
+    private volatile ChannelRouter channelRouter; // Splits the stream across output sinks; rebuilt on the render thread
+    private volatile String channelRoutes = ""; // Route spec, see ChannelRouter.parseRoutes; empty = whole stream to the default output
+    private volatile boolean channelRoutesChanged = true; // Render thread rebuilds the router before the next packet
     private MediaSessionCompat mediaSession;
     private PowerManager.WakeLock wakeLock;
     private WifiManager.WifiLock wifiLock; // Keep WiFi active
-    private MulticastSocket socket;
-    private Thread networkThread;
+    private volatile MulticastSocket socket; // Closed from the ConnectivityManager callback thread to interrupt receive()
+    private volatile NetworkInterface joinedInterface; // Interface the group was joined on, null for the default
+    private Thread networkThread; // Receive thread: socket I/O and tracing; hands packets to the render thread
+    private Thread renderThread; // Render thread: silence detection, sink config, channel routing, writes
+    private final PacketHandoffQueue handoffQueue = new PacketHandoffQueue(HANDOFF_QUEUE_SLOTS, PACKET_BUFFER_SIZE);
     private volatile boolean isRunning = true;
-    private volatile boolean isSleeping = false;
-    private Handler inactivityHandler = new Handler(Looper.getMainLooper());
-    private Runnable inactivityRunnable;
+    private boolean inForeground = false; // Main thread only
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    // Sleep state lives in the core, on the render thread; the notification, media session and
+    // wake lock updates that go with it are Binder calls, so they're posted to the main thread
+    private final ScreamReceiverCore receiverCore = new ScreamReceiverCore(new ChannelRouter(),
+            INACTIVITY_TIMEOUT_MS * 1000000L, new ScreamReceiverCore.Listener() {
+        @Override
+        public void onSleep() {
+            mainHandler.post(AudioService.this::goToSleep);
+        }
+
+        @Override
+        public void onWake() {
+            mainHandler.post(AudioService.this::wakeUpFromInactivity);
+        }
+
+        @Override
+        public void onFormatChanged(int sampleRate, int channels, int bitDepth, int activeRoutes, int routeCount) {
+            Log.i(TAG, "Audio format change detected or first packet. New Format - Rate: " + sampleRate
+                    + ", Channels: " + channels + ", Depth: " + bitDepth);
+            if (bitDepth == 24) {
+                Log.w(TAG, "Using ENCODING_PCM_FLOAT for 24-bit depth. Verify compatibility.");
+            }
+            if (activeRoutes == 0) {
+                Log.e(TAG, "Failed to reconfigure any sink. Skipping packet.");
+            } else if (activeRoutes < routeCount) {
+                Log.w(TAG, (routeCount - activeRoutes) + " of " + routeCount
+                        + " channel routes inactive for a " + channels + "-channel stream.");
+            }
+        }
 
-    // Store current audio parameters to detect changes
-    private int currentSampleRate = 0;
-    private int currentChannelConfig = 0;
-    private int currentAudioFormat = 0;
+        @Override
+        public void onPacketRejected(String reason) {
+            Log.w(TAG, reason);
+        }
+    });
+    private long lastReceiveMetricsLogTime = 0; // Receive thread only
+    private long lastRenderMetricsLogTime = 0; // Render thread only
+    private volatile PacketTraceRecorder traceRecorder; // Non-null while capturing
+    private volatile PacketTraceReplayer traceReplayer; // Non-null while replaying
+    private File lastTraceFile;
+
+    // Write statistics (render thread only); totals are carried over from routers that were replaced
+    private long totalWriteCalls = 0;
+    private long totalBytesWritten = 0;
+    private long totalBytesDropped = 0;
+    private long lastMetricsCpuNanos = 0;
+    private long lastMetricsAudioNanos = 0;
+
+    // Kernel socket accounting and SO_RCVBUF tuning, on the sampler thread. The receive thread
+    // only tracks bursts.
+    private final ReceiveBufferTuner receiveBufferTuner =
+            new ReceiveBufferTuner(SOCKET_BUFFER_MIN_BYTES, SOCKET_BUFFER_MAX_BYTES, SOCKET_BUFFER_INITIAL_BYTES);
+    private final SocketStatsSampler socketStatsSampler = new SocketStatsSampler(
+            new UdpSocketStats(NETWORK_PORT, android.os.Process.myUid()), receiveBufferTuner, SOCKET_BUFFER_TUNE_INTERVAL_MS);
+    private Thread socketStatsThread;
+    private volatile int requestedSocketBufferSize = 0;
+    private long peakBurstBytes = 0; // Since the last metrics log
+    private long lastArrivalNanos = 0;
+    private long currentBurstBytes = 0;
+
+    // Network change handling: the monitor feeds the controller, which tells the network thread to rebuild
+    private NetworkMonitor networkMonitor;
+    private final MulticastRecoveryController recoveryController = new MulticastRecoveryController(this::interruptReceive);
+
+    // Threading model configuration, settable through start intent extras and picked up by
+    // the threads on their next loop iteration
+    private volatile int receiveThreadPriority = android.os.Process.THREAD_PRIORITY_AUDIO;
+    private volatile int renderThreadPriority = android.os.Process.THREAD_PRIORITY_URGENT_AUDIO;
+    private volatile boolean busyPollRender = false; // Spin instead of parking while waiting for packets
+    private int appliedReceivePriority = Integer.MIN_VALUE; // Receive thread only
+
+    // Per-thread latency histograms
+    private final LatencyHistogram receiveWakeupLatency = new LatencyHistogram("Receive wakeup latency");
+    private final LatencyHistogram receiveProcessingTime = new LatencyHistogram("Receive processing time");
+    private final LatencyHistogram renderWakeupLatency = new LatencyHistogram("Render wakeup latency");
+    private final LatencyHistogram renderProcessingTime = new LatencyHistogram("Render processing time");
+    private long lastPacketDurationNanos = 0; // Receive thread only
 
     // --- Service Lifecycle ---
 
@@ -71,38 +167,46 @@ public class AudioService extends Service {
         createNotificationChannel();
         initializeMediaSession();
         // initializeAudioTrack(); // Delay initialization until first packet
+        networkMonitor = new ConnectivityNetworkMonitor(this);
+        networkMonitor.start(recoveryController);
+        startRenderThread();
         startNetworkListener();
-        resetInactivityTimer(); // Start the timer initially
         Log.d(TAG, "onCreate: Service created successfully.");
     }
 
     @Override
     public int onStartCommand(Intent intent, int flags, int startId) {
         Log.d(TAG, "onStartCommand: Service starting.");
-
-        // Handle potential actions from notification/media controls
-        if (intent != null && intent.getAction() != null) {
-            handleIntentAction(intent.getAction());
-            return START_STICKY; // Remain running until explicitly stopped
+        if (intent != null) {
+            applyThreadingExtras(intent);
+            applyRoutingExtras(intent);
         }
 
-        // Make the service run in the foreground using the EXIT notification
-        Notification exitNotification = createExitNotification("Receiving Audio");
-        startForeground(NOTIFICATION_ID_EXIT, exitNotification);
+        // Make the service run in the foreground using the EXIT notification. This also has to happen
+        // when the first start carries an action (e.g. a forwarded trace command)
+        if (!inForeground) {
+            Notification exitNotification = createExitNotification("Receiving Audio");
+            startForeground(NOTIFICATION_ID_EXIT, exitNotification);
+            inForeground = true;
 
-        // Also show the media notification
-        //Notification mediaNotification = createMediaNotification("Receiving Audio", PlaybackStateCompat.STATE_PLAYING);
-        NotificationManager manager = (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
-        if (manager != null) {
-          //  manager.notify(NOTIFICATION_ID_MEDIA, mediaNotification);
-        } else {
-            Log.e(TAG, "Failed to get NotificationManager to show media notification.");
-        }
+            // Also show the media notification
+            //Notification mediaNotification = createMediaNotification("Receiving Audio", PlaybackStateCompat.STATE_PLAYING);
+            NotificationManager manager = (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
+            if (manager != null) {
+              //  manager.notify(NOTIFICATION_ID_MEDIA, mediaNotification);
+            } else {
+                Log.e(TAG, "Failed to get NotificationManager to show media notification.");
+            }
 
-        acquireWakeLocks(); // Acquire locks when starting foreground
+            acquireWakeLocks(); // Acquire locks when starting foreground
+            Log.d(TAG, "onStartCommand: Service started in foreground with two notifications.");
+        }
 
-        Log.d(TAG, "onStartCommand: Service started in foreground with two notifications.");
-        return START_STICKY;
+        // Handle potential actions from notification/media controls
+        if (intent != null && intent.getAction() != null) {
+            handleIntentAction(intent);
+        }
+        return START_STICKY; // Remain running until explicitly stopped
     }
 
     @Override
@@ -111,8 +215,14 @@ public class AudioService extends Service {
         Log.d(TAG, "onDestroy: Service destroying.");
         isRunning = false;
         releaseWakeLocks();
+        stopTraceReplay();
+        if (networkMonitor != null) {
+            networkMonitor.stop();
+        }
         stopNetworkListener();
-        releaseAudioTrack();
+        stopRenderThread();
+        stopTraceCapture();
+        releaseSinks();
         releaseMediaSession();
         stopForeground(true); // Remove EXIT notification associated with startForeground
         // Explicitly cancel the MEDIA notification
@@ -120,7 +230,8 @@ public class AudioService extends Service {
         if (manager != null) {
             manager.cancel(NOTIFICATION_ID_MEDIA);
         }
-        inactivityHandler.removeCallbacks(inactivityRunnable); // Clean up handler
+        mainHandler.removeCallbacksAndMessages(null); // Drop sleep/wake updates posted by the render thread
+        releaseWakeLocks(); // Again, in case a wake update ran while the threads were stopping
         Log.d(TAG, "onDestroy: Service destroyed, notifications removed.");
     }
 
@@ -206,10 +317,9 @@ public class AudioService extends Service {
             @Override
             public void onPlay() {
                 Log.d(TAG, "MediaSession: Play requested.");
-                // Resume playback / wake up from sleep
-                wakeUpFromInactivity(); // This already calls updateNotifications
-                // updateMediaPlaybackState(PlaybackStateCompat.STATE_PLAYING); // Called within wakeUpFromInactivity
-                // updateNotifications("Receiving Audio", PlaybackStateCompat.STATE_PLAYING); // Called within wakeUpFromInactivity
+                // Resume playback / wake up from sleep; the render thread wakes the core, which
+                // posts wakeUpFromInactivity() back here to update the notifications
+                receiverCore.requestWake();
                 // You might need to re-acquire wakelocks if released during sleep
                  acquireWakeLocks(); // Ensure locks are held
             }
@@ -257,61 +367,6 @@ public class AudioService extends Service {
         Log.d(TAG, "MediaSession initialized and active.");
     }
 
-     // Initializes or re-initializes the AudioTrack with the given parameters
-     private boolean initializeAudioTrack(int sampleRate, int channelConfig, int audioFormat) {
-        Log.d(TAG, "Initializing AudioTrack with Rate: " + sampleRate + ", Channels: " + channelConfig + ", Format: " + audioFormat);
-
-        // Release existing track if it exists
-        releaseAudioTrack();
-
-        // Validate parameters before proceeding
-        if (sampleRate <= 0 || channelConfig == 0 || audioFormat == 0) {
-             Log.e(TAG, "Invalid audio parameters received for AudioTrack initialization.");
-             return false;
-        }
-
-        int minBufferSize = AudioTrack.getMinBufferSize(sampleRate, channelConfig, audioFormat);
-        if (minBufferSize == AudioTrack.ERROR_BAD_VALUE || minBufferSize == AudioTrack.ERROR) {
-             Log.e(TAG, "Invalid audio parameters for getMinBufferSize.");
-             // Handle error appropriately - maybe stop service?
-             // stopSelf(); // Maybe too drastic? Log the error for now.
-             return false; // Indicate failure
-        }
-
-        int bufferSize = minBufferSize;
-        Log.d(TAG, "Calculated minBufferSize: " + minBufferSize + ", Using bufferSize: " + bufferSize);
-
-        try {
-            audioTrack = new AudioTrack.Builder()
-                    .setAudioAttributes(new AudioAttributes.Builder()
-                            .setUsage(AudioAttributes.USAGE_MEDIA)
-                            .setContentType(AudioAttributes.CONTENT_TYPE_MUSIC)
-                            .build())
-                    .setAudioFormat(new AudioFormat.Builder()
-                            .setEncoding(audioFormat)
-                            .setSampleRate(sampleRate)
-                            .setChannelMask(channelConfig)
-                            .build())
-                    .setBufferSizeInBytes(bufferSize)
-                    .setTransferMode(AudioTrack.MODE_STREAM) // Streaming mode
-                    .build();
-
-            // Start playback immediately (it will wait for data)
-            // Start playback immediately (it will wait for data)
-            audioTrack.play();
-            Log.i(TAG, "AudioTrack initialized and playing. Buffer size: " + bufferSize + " bytes");
-            return true; // Indicate success
-
-        } catch (IllegalArgumentException | UnsupportedOperationException e) {
-            Log.e(TAG, "Failed to create AudioTrack: " + e.getMessage(), e);
-            audioTrack = null; // Ensure track is null on failure
-            // Handle error - stop service?
-            // stopSelf(); // Maybe too drastic?
-            return false; // Indicate failure
-        }
-    }
-
-
     // --- Media Session & Notifications ---
 
     // Creates the simple notification with just status and Exit button (used for startForeground)
@@ -433,113 +488,168 @@ public class AudioService extends Service {
 
         networkThread = new Thread(() -> {
             // Set thread priority higher for network/audio processing
-            android.os.Process.setThreadPriority(android.os.Process.THREAD_PRIORITY_AUDIO);
-            Log.d(TAG, "Network thread priority set to AUDIO.");
+            appliedReceivePriority = applyThreadPriority("Receive", receiveThreadPriority, Integer.MIN_VALUE);
 
-            byte[] buffer = new byte[4096]; // Keep receive buffer reasonable, OS buffer is more critical
+            byte[] buffer = new byte[PACKET_BUFFER_SIZE]; // Keep receive buffer reasonable, OS buffer is more critical
             DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
 
-            try {
-                // Create a MulticastSocket instead of a DatagramSocket
-                socket = new MulticastSocket(NETWORK_PORT);
-                
-                // Join the multicast group
-                InetAddress multicastGroup = InetAddress.getByName(MULTICAST_ADDRESS);
-                socket.joinGroup(multicastGroup);
-                
-                // Increase socket receive buffer size
-                int desiredSocketBufferSize = 512 * 1024; // 512 KB example
-                socket.setReceiveBufferSize(desiredSocketBufferSize);
-                int actualSocketBufferSize = socket.getReceiveBufferSize();
-                Log.i(TAG, "Multicast Socket created on port " + NETWORK_PORT + " and joined group " + MULTICAST_ADDRESS + 
-                      ". Requested SO_RCVBUF: " + desiredSocketBufferSize + ", Actual: " + actualSocketBufferSize);
-
-
-                while (isRunning) {
-                    try {
-                        // Adjust timeout based on sleep state
-                        socket.setSoTimeout(isSleeping ? SOCKET_TIMEOUT_SLEEP_MS : SOCKET_TIMEOUT_ACTIVE_MS);
-                        socket.receive(packet);
-
-                        // --- Packet Received ---
-                        if (isSleeping) {
-                            wakeUpFromInactivity(); // Wake up if we were sleeping
-                        }
-                        resetInactivityTimer(); // Reset timer on receiving data
-
-                        int bytesRead = packet.getLength();
-                        if (bytesRead >= 5) { // Need at least 5 bytes for header
-                            byte[] receivedData = packet.getData(); // Get the raw buffer
-                            int offset = packet.getOffset(); // Get the starting offset in the buffer
-
-                            // Extract header (first 5 bytes)
-                            byte[] header = new byte[5];
-                            System.arraycopy(receivedData, offset, header, 0, 5);
-
-                            // Extract PCM data (remaining bytes)
-                            int pcmDataLength = bytesRead - 5;
-                            byte[] pcmData = new byte[pcmDataLength];
-                            System.arraycopy(receivedData, offset + 5, pcmData, 0, pcmDataLength);
-
-                            // Handle the packet (header parsing, AudioTrack config, playback)
-                            handleAudioPacket(header, pcmData);
-
-                        } else {
-                            Log.w(TAG, "Received packet too small (" + bytesRead + " bytes), expected >= 5.");
-                        }
-
-
-                    } catch (SocketTimeoutException e) {
-                        // Timeout occurred - expected behavior, especially when sleeping
-                        if (!isSleeping) {
-                             //Log.v(TAG, "Socket timeout while active.");
-                            // If timeout happens while active, the inactivity timer will handle sleep transition
-                        } else {
-                             //Log.v(TAG, "Socket timeout while sleeping (checking for data).");
-                            // Continue loop to check again after SOCKET_TIMEOUT_SLEEP_MS
-                        }
-                    } catch (IOException e) {
-                        if (isRunning) { // Avoid logging errors if we are shutting down
-                            Log.e(TAG, "Network receive error: " + e.getMessage(), e);
-                            // Consider adding a small delay before retrying to avoid busy-looping on errors
-                            try { Thread.sleep(500); } catch (InterruptedException ie) { Thread.currentThread().interrupt(); }
-                        }
-                    }
+            // The socket is torn down and rebuilt (re-joining the group) whenever the network changes
+            // or receiving fails. The AudioTrack is left alone so buffered audio covers the gap.
+            while (isRunning) {
+                recoveryController.onRebuildStarted();
+                long openedAt = System.currentTimeMillis();
+                try {
+                    openSocket();
+                } catch (BindException e) {
+                    Log.e(TAG, "Failed to create or bind socket on port " + NETWORK_PORT + ": " + e.getMessage(), e);
+                    // Port is held by something else; retrying won't help
+                    closeSocket();
+                    stopSelf();
+                    break;
+                } catch (IOException e) {
+                    Log.e(TAG, "Failed to open socket or join multicast group " + MULTICAST_ADDRESS + ": " + e.getMessage() + ". Retrying.");
+                    closeSocket();
+                    sleepQuietly(SOCKET_REOPEN_INTERVAL_MS);
+                    continue;
                 }
 
-            } catch (SocketException e) {
-                Log.e(TAG, "Failed to create or bind socket on port " + NETWORK_PORT + ": " + e.getMessage(), e);
-                // Consider stopping the service if the socket fails critically
-                stopSelf();
-            } catch (IOException e) {
-                Log.e(TAG, "Failed to join multicast group " + MULTICAST_ADDRESS + ": " + e.getMessage(), e);
-                // Consider stopping the service if joining the multicast group fails
-                stopSelf();
-            } finally {
-                if (socket != null && !socket.isClosed()) {
-                    socket.close();
-                    Log.i(TAG, "UDP Socket closed.");
+                receivePackets(packet);
+                closeSocket();
+
+                // Don't spin if a fresh socket fails straight away. Network changes rebuild at once.
+                long lifetime = System.currentTimeMillis() - openedAt;
+                if (isRunning && recoveryController.shouldBackOff() && lifetime < SOCKET_REOPEN_INTERVAL_MS) {
+                    sleepQuietly(SOCKET_REOPEN_INTERVAL_MS - lifetime);
                 }
             }
             Log.i(TAG, "Network listener thread finished.");
-        });
+        }, "ScreamReceive");
 
         networkThread.start();
+        startSocketStatsSampler();
         Log.d(TAG, "Network listener thread started.");
     }
 
+    // Creates the multicast socket and joins the group on the current network's interface
+    private void openSocket() throws IOException {
+        // Create a MulticastSocket instead of a DatagramSocket
+        MulticastSocket newSocket = new MulticastSocket(NETWORK_PORT);
+        socket = newSocket;
+        joinedInterface = null;
+
+        // Join the multicast group, on the interface of the current default network if known
+        InetAddress multicastGroup = InetAddress.getByName(MULTICAST_ADDRESS);
+        String interfaceName = recoveryController.getInterfaceName();
+        NetworkInterface networkInterface = interfaceName != null ? NetworkInterface.getByName(interfaceName) : null;
+        if (networkInterface != null) {
+            newSocket.joinGroup(new InetSocketAddress(multicastGroup, NETWORK_PORT), networkInterface);
+        } else {
+            newSocket.joinGroup(multicastGroup);
+        }
+        joinedInterface = networkInterface;
+
+        // Increase socket receive buffer size; adjusted later from kernel queue statistics
+        int desiredSocketBufferSize = receiveBufferTuner.getCurrentBytes();
+        newSocket.setReceiveBufferSize(desiredSocketBufferSize);
+        requestedSocketBufferSize = desiredSocketBufferSize;
+        int actualSocketBufferSize = newSocket.getReceiveBufferSize();
+        Log.i(TAG, "Multicast Socket created on port " + NETWORK_PORT + " and joined group " + MULTICAST_ADDRESS
+                + " on " + (networkInterface != null ? interfaceName : "default interface")
+                + ". Requested SO_RCVBUF: " + desiredSocketBufferSize + ", Actual: " + actualSocketBufferSize);
+    }
+
+    // Receives and handles packets until the service stops or the socket needs rebuilding
+    private void receivePackets(DatagramPacket packet) {
+        MulticastSocket currentSocket = socket;
+        while (isRunning && !recoveryController.shouldRebuild()) {
+            appliedReceivePriority = applyThreadPriority("Receive", receiveThreadPriority, appliedReceivePriority);
+            try {
+                // Adjust timeout based on sleep state
+                currentSocket.setSoTimeout(receiverCore.isSleeping() ? SOCKET_TIMEOUT_SLEEP_MS : SOCKET_TIMEOUT_ACTIVE_MS);
+                currentSocket.receive(packet);
+
+                // --- Packet Received ---
+                long arrivalNanos = System.nanoTime();
+                recordReceiveWakeup(arrivalNanos, packet.getData(), packet.getOffset(), packet.getLength());
+                long recoveryNanos = recoveryController.onPacketReceived(arrivalNanos);
+                if (recoveryNanos >= 0) {
+                    Log.i(TAG, "Receiving again " + recoveryNanos / 1000000 + " ms after network disruption.");
+                }
+                trackBurst(arrivalNanos, packet.getLength());
+                PacketTraceRecorder recorder = traceRecorder;
+                if (recorder != null) {
+                    recorder.record(packet.getData(), packet.getOffset(), packet.getLength(),
+                            packet.getAddress(), packet.getPort(), arrivalNanos);
+                }
+                if (traceReplayer == null) { // Live packets are ignored while a trace is being replayed
+                    handoffQueue.offer(packet.getData(), packet.getOffset(), packet.getLength());
+                }
+                receiveProcessingTime.record(System.nanoTime() - arrivalNanos);
+                maybeLogReceiveMetrics();
+
+
+            } catch (SocketTimeoutException e) {
+                maybeLogReceiveMetrics();
+                // Timeout occurred - expected behavior, especially when sleeping
+                if (!receiverCore.isSleeping()) {
+                     //Log.v(TAG, "Socket timeout while active.");
+                    // If timeout happens while active, the inactivity timer will handle sleep transition
+                } else {
+                     //Log.v(TAG, "Socket timeout while sleeping (checking for data).");
+                    // Continue loop to check again after SOCKET_TIMEOUT_SLEEP_MS
+                }
+            } catch (IOException e) {
+                // Avoid logging errors if we are shutting down or the socket was closed for a rebuild
+                if (isRunning && !recoveryController.shouldRebuild()) {
+                    Log.e(TAG, "Network receive error: " + e.getMessage() + ". Rebuilding socket.", e);
+                    recoveryController.onReceiveError();
+                }
+            }
+        }
+    }
+
+    private void closeSocket() {
+        MulticastSocket oldSocket = socket;
+        if (oldSocket != null && !oldSocket.isClosed()) {
+            oldSocket.close();
+            Log.i(TAG, "UDP Socket closed.");
+        }
+    }
+
+    // Unblocks a pending receive() so the network thread notices a rebuild request immediately
+    private void interruptReceive() {
+        MulticastSocket currentSocket = socket;
+        if (currentSocket != null) {
+            currentSocket.close();
+        }
+    }
+
+    private static void sleepQuietly(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
     private void stopNetworkListener() {
         isRunning = false; // Signal thread to stop
-        if (socket != null) {
+        MulticastSocket currentSocket = socket;
+        if (currentSocket != null) {
             try {
-                // Leave the multicast group before closing the socket
+                // Leave the multicast group (on the interface it was joined on) before closing the socket
                 InetAddress multicastGroup = InetAddress.getByName(MULTICAST_ADDRESS);
-                socket.leaveGroup(multicastGroup);
+                NetworkInterface networkInterface = joinedInterface;
+                if (networkInterface != null) {
+                    currentSocket.leaveGroup(new InetSocketAddress(multicastGroup, NETWORK_PORT), networkInterface);
+                } else {
+                    currentSocket.leaveGroup(multicastGroup);
+                }
                 Log.d(TAG, "Left multicast group: " + MULTICAST_ADDRESS);
             } catch (IOException e) {
                 Log.w(TAG, "Error leaving multicast group: " + e.getMessage());
             } finally {
-                socket.close(); // Interrupts blocking receive() call
+                currentSocket.close(); // Interrupts blocking receive() call
             }
         }
         if (networkThread != null) {
@@ -552,130 +662,431 @@ public class AudioService extends Service {
             }
             networkThread = null;
         }
+        stopSocketStatsSampler();
     }
 
-    // --- Audio Playback & Packet Handling ---
+    // --- Render Thread ---
 
-    // Parses header, configures AudioTrack if needed, and plays PCM data
-    private void handleAudioPacket(byte[] header, byte[] pcmData) {
-        // --- Parse Header ---
-        // Byte 0: Sample Rate
-        int baseRate = ((header[0] & 0x80) == 0) ? 48000 : 44100; // Bit 7: 0=48k, 1=44.1k
-        int multiplier = (header[0] & 0x7F); // Bits 0-6
-        int sampleRate = baseRate * (multiplier); // Multiplier is 0-based
+    private void startRenderThread() {
+        if (renderThread != null && renderThread.isAlive()) {
+            Log.w(TAG, "Render thread already running.");
+            return;
+        }
 
-        // Byte 1: Sample Width (Bits) -> AudioFormat Encoding
-        int bitDepth = header[1] & 0xFF; // Treat as unsigned byte
-        int audioFormatEncoding;
-        switch (bitDepth) {
-            case 8:
-                audioFormatEncoding = AudioFormat.ENCODING_PCM_8BIT;
-                break;
-            case 16:
-                audioFormatEncoding = AudioFormat.ENCODING_PCM_16BIT;
-                break;
-            case 24: // Android uses ENCODING_PCM_FLOAT for 24/32 bit usually, check AudioTrack support
-                audioFormatEncoding = AudioFormat.ENCODING_PCM_FLOAT; // Or ENCODING_PCM_24BIT_PACKED if supported/needed
-                 Log.w(TAG, "Using ENCODING_PCM_FLOAT for 24-bit depth. Verify compatibility.");
-                break;
-            case 32:
-                audioFormatEncoding = AudioFormat.ENCODING_PCM_FLOAT;
-                break;
-            default:
-                Log.e(TAG, "Unsupported bit depth: " + bitDepth);
-                return; // Cannot process this packet
+        renderThread = new Thread(() -> {
+            int appliedPriority = Integer.MIN_VALUE;
+            while (isRunning) {
+                appliedPriority = applyThreadPriority("Render", renderThreadPriority, appliedPriority);
+                long timeoutNanos = (receiverCore.isSleeping() ? SOCKET_TIMEOUT_SLEEP_MS : SOCKET_TIMEOUT_ACTIVE_MS) * 1000000L;
+                int slot = handoffQueue.take(timeoutNanos, receiverCore.shouldBusyPoll(busyPollRender));
+                if (slot < 0) {
+                    receiverCore.drain(); // Nothing arrived for a while; push out any staged partial burst
+                } else {
+                    long start = System.nanoTime();
+                    renderWakeupLatency.record(start - handoffQueue.publishNanosOf(slot));
+                    if (channelRoutesChanged) {
+                        rebuildChannelRouter();
+                    }
+                    receiverCore.process(handoffQueue.getBuffer(), handoffQueue.offsetOf(slot), handoffQueue.lengthOf(slot), start);
+                    handoffQueue.release();
+                    renderProcessingTime.record(System.nanoTime() - start);
+                }
+                receiverCore.checkInactivity(System.nanoTime());
+                maybeLogRenderMetrics();
+            }
+            Log.i(TAG, "Render thread finished.");
+        }, "ScreamRender");
+
+        renderThread.start();
+        Log.d(TAG, "Render thread started.");
+    }
+
+    private void stopRenderThread() {
+        isRunning = false; // Render thread notices within one wait timeout
+        if (renderThread != null) {
+            try {
+                renderThread.join(SOCKET_TIMEOUT_SLEEP_MS + 1000);
+                Log.d(TAG, "Render thread joined.");
+            } catch (InterruptedException e) {
+                Log.w(TAG, "Interrupted while waiting for render thread to finish.");
+                Thread.currentThread().interrupt();
+            }
+            renderThread = null;
         }
+    }
 
-        // Byte 2: Number of Channels -> AudioFormat Channel Config
-        int numChannels = header[2] & 0xFF;
-        int channelConfig;
-        // Basic mapping - might need refinement based on channel mask
-        switch (numChannels) {
-            case 1:
-                channelConfig = AudioFormat.CHANNEL_OUT_MONO;
-                break;
-            case 2:
-                channelConfig = AudioFormat.CHANNEL_OUT_STEREO;
-                break;
-            case 4: // Example: Quad
-                channelConfig = AudioFormat.CHANNEL_OUT_QUAD;
-                break;
-            case 6: // Example: 5.1
-                channelConfig = AudioFormat.CHANNEL_OUT_5POINT1;
-                break;
-            case 8: // Example: 7.1
-                 if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
-                     channelConfig = AudioFormat.CHANNEL_OUT_7POINT1_SURROUND;
-                 } else {
-                      Log.w(TAG, "7.1 surround not directly supported below Android M, using default.");
-                      channelConfig = AudioFormat.CHANNEL_OUT_DEFAULT; // Fallback
-                 }
-                break;
-            default:
-                 Log.w(TAG, "Unsupported channel count: " + numChannels + ". Using default.");
-                 channelConfig = AudioFormat.CHANNEL_OUT_DEFAULT; // Fallback
-                 break;
-        }
-
-        // Bytes 3-4: Channel Mask (DWORD, little-endian)
-        // We use the numChannels mapping above for simplicity, but the mask could be used
-        // for more precise mapping if needed (e.g., AudioFormat.Builder.setChannelMask)
-        // int channelMask = ((header[4] & 0xFF) << 8) | (header[3] & 0xFF);
-        // Log.v(TAG, "Parsed Channel Mask: " + channelMask); // Verbose
-
-        // --- Check if AudioTrack needs reconfiguration ---
-        boolean needsReconfig = (audioTrack == null ||
-                                 sampleRate != currentSampleRate ||
-                                 channelConfig != currentChannelConfig ||
-                                 audioFormatEncoding != currentAudioFormat);
-
-        if (needsReconfig) {
-            Log.i(TAG, "Audio format change detected or first packet. Reconfiguring AudioTrack.");
-            Log.i(TAG, "New Format - Rate: " + sampleRate + ", Channels: " + numChannels + " (Config: " + channelConfig + "), Depth: " + bitDepth + " (Format: " + audioFormatEncoding + ")");
-            if (initializeAudioTrack(sampleRate, channelConfig, audioFormatEncoding)) {
-                // Update current parameters only on successful initialization
-                currentSampleRate = sampleRate;
-                currentChannelConfig = channelConfig;
-                currentAudioFormat = audioFormatEncoding;
-            } else {
-                Log.e(TAG, "Failed to reconfigure AudioTrack. Skipping packet.");
-                return; // Cannot play if reconfig failed
+    // Applies a configured priority to the calling thread if it differs from what was last applied
+    private static int applyThreadPriority(String threadName, int desired, int applied) {
+        if (desired != applied) {
+            try {
+                android.os.Process.setThreadPriority(desired);
+                Log.d(TAG, threadName + " thread priority set to " + desired + ".");
+            } catch (IllegalArgumentException | SecurityException e) {
+                Log.w(TAG, "Failed to set " + threadName + " thread priority to " + desired + ": " + e.getMessage());
             }
         }
+        return desired;
+    }
 
-        // --- Play PCM Data ---
-        processAndPlayAudio(pcmData);
+    // Reads optional threading settings from a start intent:
+    // receive_priority / render_priority (android.os.Process priorities), busy_poll (boolean)
+    private void applyThreadingExtras(Intent intent) {
+        receiveThreadPriority = intent.getIntExtra("receive_priority", receiveThreadPriority);
+        renderThreadPriority = intent.getIntExtra("render_priority", renderThreadPriority);
+        busyPollRender = intent.getBooleanExtra("busy_poll", busyPollRender);
+        Log.d(TAG, "Threading: receive priority " + receiveThreadPriority + ", render priority "
+                + renderThreadPriority + ", busy-poll " + busyPollRender + ".");
     }
 
+    // Java has no per-datagram kernel timestamps, so the receive thread's wakeup latency is measured
+    // against the stream's own cadence: how much later than the previous packet's playback duration
+    // this packet was picked up. Includes network jitter, which is what the jitter buffer has to absorb.
+    private void recordReceiveWakeup(long arrivalNanos, byte[] data, int offset, int length) {
+        long gap = arrivalNanos - lastArrivalNanos;
+        if (lastArrivalNanos != 0 && lastPacketDurationNanos > 0 && gap < MAX_CADENCE_GAP_NANOS) {
+            receiveWakeupLatency.record(Math.max(0, gap - lastPacketDurationNanos));
+        }
+        lastPacketDurationNanos = packetDurationNanos(data, offset, length);
+    }
 
-    private void processAndPlayAudio(byte[] pcmData) {
-        if (audioTrack != null && audioTrack.getPlayState() == AudioTrack.PLAYSTATE_PLAYING) {
-            int bytesWritten = audioTrack.write(pcmData, 0, pcmData.length);
-            if (bytesWritten < 0) {
-                Log.e(TAG, "AudioTrack write error: " + bytesWritten + " (Format: " + currentAudioFormat + ")");
-                // Handle error (e.g., buffer underrun, invalid data, format mismatch?)
-            } else if (bytesWritten < pcmData.length) {
-                 Log.w(TAG, "AudioTrack couldn't write all data. Wrote " + bytesWritten + "/" + pcmData.length);
-            } else {
-                 // Log.v(TAG, "Wrote " + bytesWritten + " bytes to AudioTrack."); // Very verbose, disable normally
-            }
+    // Nominal playback duration of a Scream packet according to its header, or 0 if unknown
+    private static long packetDurationNanos(byte[] data, int offset, int length) {
+        if (length < 5) {
+            return 0;
+        }
+        int sampleRate = (((data[offset] & 0x80) == 0) ? 48000 : 44100) * (data[offset] & 0x7F);
+        int frameBytes = (data[offset + 2] & 0xFF) * ((data[offset + 1] & 0xFF) / 8);
+        if (sampleRate <= 0 || frameBytes <= 0) {
+            return 0;
+        }
+        return (long) ((length - 5) / frameBytes) * 1000000000L / sampleRate;
+    }
+
+    // Groups back-to-back packets into bursts so the receive buffer can be sized for the largest one
+    private void trackBurst(long arrivalNanos, int length) {
+        if (arrivalNanos - lastArrivalNanos < BURST_GAP_NANOS) {
+            currentBurstBytes += length;
         } else {
-            Log.w(TAG, "AudioTrack not ready or not playing, discarding data.");
+            currentBurstBytes = length;
         }
+        lastArrivalNanos = arrivalNanos;
+        peakBurstBytes = Math.max(peakBurstBytes, currentBurstBytes);
+        socketStatsSampler.onBurst(currentBurstBytes);
     }
 
-    private void releaseAudioTrack() {
-        if (audioTrack != null) {
-            if (audioTrack.getPlayState() == AudioTrack.PLAYSTATE_PLAYING) {
+    // Samples kernel queue/drop counters every SOCKET_STATS_SAMPLE_INTERVAL_MS on a background
+    // priority thread, so the /proc reads never delay the receive thread, and resizes SO_RCVBUF
+    // at the end of each tuning window
+    private void startSocketStatsSampler() {
+        if (socketStatsThread != null && socketStatsThread.isAlive()) {
+            return;
+        }
+        socketStatsThread = new Thread(() -> {
+            android.os.Process.setThreadPriority(android.os.Process.THREAD_PRIORITY_BACKGROUND);
+            while (isRunning) {
+                sampleSocketStats();
                 try {
-                    audioTrack.stop();
-                } catch (IllegalStateException e) {
-                     Log.e(TAG, "Error stopping AudioTrack: " + e.getMessage());
+                    Thread.sleep(SOCKET_STATS_SAMPLE_INTERVAL_MS);
+                } catch (InterruptedException e) {
+                    break;
                 }
             }
-            audioTrack.release();
-            audioTrack = null;
-            Log.d(TAG, "AudioTrack released.");
+        }, "ScreamSocketStats");
+        socketStatsThread.start();
+    }
+
+    private void stopSocketStatsSampler() {
+        if (socketStatsThread != null) {
+            socketStatsThread.interrupt();
+            try {
+                socketStatsThread.join(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            socketStatsThread = null;
+        }
+    }
+
+    // Sampler thread
+    private void sampleSocketStats() {
+        boolean hadKernelStats = socketStatsSampler.isKernelStatsAvailable();
+        long dropsBefore = socketStatsSampler.getKernelDropsTotal();
+        int size = socketStatsSampler.poll(System.currentTimeMillis());
+        if (hadKernelStats && !socketStatsSampler.isKernelStatsAvailable()) {
+            Log.w(TAG, "Kernel UDP counters unavailable (" + socketStatsSampler.getKernelStatsError()
+                    + "), tuning SO_RCVBUF from packet bursts only.");
+        }
+        long newDrops = socketStatsSampler.getKernelDropsTotal() - dropsBefore;
+        if (newDrops > 0) {
+            Log.w(TAG, "Kernel dropped " + newDrops + " datagrams (socket buffer full).");
+        }
+        MulticastSocket currentSocket = socket;
+        if (size > 0 && size != requestedSocketBufferSize && currentSocket != null) {
+            try {
+                currentSocket.setReceiveBufferSize(size);
+                Log.i(TAG, "SO_RCVBUF resized from " + requestedSocketBufferSize + " to " + size
+                        + " (actual: " + currentSocket.getReceiveBufferSize() + ").");
+                requestedSocketBufferSize = size;
+            } catch (SocketException e) {
+                Log.w(TAG, "Failed to resize SO_RCVBUF: " + e.getMessage());
+            }
+        }
+    }
+
+    // Periodically logs receive-side metrics (called from the network thread)
+    private void maybeLogReceiveMetrics() {
+        long now = System.currentTimeMillis();
+        if (now - lastReceiveMetricsLogTime < METRICS_LOG_INTERVAL_MS) {
+            return;
+        }
+        lastReceiveMetricsLogTime = now;
+        logAndResetHistogram(receiveWakeupLatency);
+        logAndResetHistogram(receiveProcessingTime);
+        Log.i(TAG, "Render handoff: " + handoffQueue.getDroppedPackets() + " packets dropped (render thread behind).");
+        boolean kernelStats = socketStatsSampler.isKernelStatsAvailable();
+        long peakKernelQueueBytes = socketStatsSampler.getAndResetPeakQueueBytes();
+        Log.i(TAG, "UDP socket: kernel drops " + (kernelStats ? String.valueOf(socketStatsSampler.getKernelDropsTotal()) : "n/a")
+                + ", peak kernel queue " + (kernelStats ? peakKernelQueueBytes + " bytes" : "n/a")
+                + ", peak burst " + peakBurstBytes + " bytes, SO_RCVBUF " + requestedSocketBufferSize + " bytes.");
+        peakBurstBytes = 0;
+        if (recoveryController.getRecoveries() > 0) {
+            Log.i(TAG, "Network recovery: " + recoveryController.getRecoveries() + " recoveries, last "
+                    + recoveryController.getLastRecoveryNanos() / 1000000 + " ms, max "
+                    + recoveryController.getMaxRecoveryNanos() / 1000000 + " ms.");
+        }
+        PacketTraceRecorder recorder = traceRecorder;
+        if (recorder != null) {
+            Log.i(TAG, "Trace capture: " + recorder.getRecordedPackets() + " packets recorded, "
+                    + recorder.getDroppedPackets() + " dropped (ring full).");
+        }
+    }
+
+    // Periodically logs playback-side metrics (called from the render thread)
+    private void maybeLogRenderMetrics() {
+        long now = System.currentTimeMillis();
+        if (now - lastRenderMetricsLogTime < METRICS_LOG_INTERVAL_MS) {
+            return;
+        }
+        lastRenderMetricsLogTime = now;
+        logAndResetHistogram(renderWakeupLatency);
+        logAndResetHistogram(renderProcessingTime);
+        SilenceDetector silenceDetector = receiverCore.getSilenceDetector();
+        Log.i(TAG, "Silence detector: " + silenceDetector.getPacketsChecked() + " packets checked, "
+                + silenceDetector.getSilentPackets() + " silent.");
+        logWriteMetrics();
+    }
+
+    private static void logAndResetHistogram(LatencyHistogram histogram) {
+        if (histogram.getCount() > 0) {
+            Log.i(TAG, histogram.summary());
+        }
+        histogram.reset();
+    }
+
+    // Logs sink write counts (per sink and in total) and render thread CPU time per second of audio played
+    private void logWriteMetrics() {
+        long writeCalls = totalWriteCalls;
+        long bytesWritten = totalBytesWritten;
+        long bytesDropped = totalBytesDropped;
+        ChannelRouter router = channelRouter;
+        if (router != null) {
+            for (int i = 0; i < router.getRouteCount(); i++) {
+                AudioSink sink = router.getSink(i);
+                writeCalls += sink.getWriteCalls();
+                bytesWritten += sink.getBytesWritten();
+                bytesDropped += sink.getBytesDropped();
+                if (router.getRouteCount() > 1) {
+                    Log.i(TAG, "Sink " + sink.getName() + ": " + sink.getWriteCalls() + " write calls, "
+                            + sink.getBytesWritten() + " bytes written, " + sink.getBytesDropped() + " bytes dropped.");
+                }
+            }
+        }
+        long cpuNanos = Debug.threadCpuTimeNanos();
+
+        long audioNanosPlayed = receiverCore.getAudioNanosPlayed();
+        long newAudioNanos = audioNanosPlayed - lastMetricsAudioNanos;
+        String cpuPerAudioSecond = "n/a";
+        if (newAudioNanos > 0 && lastMetricsCpuNanos > 0) {
+            double audioSeconds = newAudioNanos / 1e9;
+            cpuPerAudioSecond = String.format(Locale.US, "%.2f ms", (cpuNanos - lastMetricsCpuNanos) / 1e6 / audioSeconds);
+        }
+        lastMetricsCpuNanos = cpuNanos;
+        lastMetricsAudioNanos = audioNanosPlayed;
+
+        Log.i(TAG, "AudioTrack writes: " + receiverCore.getPacketsPlayed() + " packets, " + writeCalls + " write calls, "
+                + bytesWritten + " bytes written, " + bytesDropped + " bytes dropped (overflow). CPU per second of audio: " + cpuPerAudioSecond);
+    }
+
+    private void accumulateWriteStats(ChannelRouter router) {
+        for (int i = 0; i < router.getRouteCount(); i++) {
+            AudioSink sink = router.getSink(i);
+            totalWriteCalls += sink.getWriteCalls();
+            totalBytesWritten += sink.getBytesWritten();
+            totalBytesDropped += sink.getBytesDropped();
+        }
+    }
+
+    // --- Trace Capture & Replay ---
+
+    private void startTraceCapture() {
+        if (traceRecorder != null) {
+            Log.w(TAG, "Trace capture already running: " + traceRecorder.getFile());
+            return;
+        }
+        File dir = getExternalFilesDir(null);
+        if (dir == null) {
+            dir = getFilesDir(); // External storage unavailable, fall back to internal
+        }
+        String name = "scream-" + new SimpleDateFormat("yyyyMMdd-HHmmss", Locale.US).format(new Date()) + ".scrt";
+        File file = new File(dir, name);
+        try {
+            traceRecorder = new PacketTraceRecorder(file, TRACE_RING_SLOTS);
+            lastTraceFile = file;
+            Log.i(TAG, "Trace capture started: " + file.getAbsolutePath());
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to start trace capture to " + file + ": " + e.getMessage(), e);
+        }
+    }
+
+    private void stopTraceCapture() {
+        PacketTraceRecorder recorder = traceRecorder;
+        if (recorder == null) {
+            return;
+        }
+        traceRecorder = null; // Stop the network thread from recording before closing
+        recorder.close();
+        if (recorder.getWriteError() != null) {
+            Log.e(TAG, "Trace capture failed: " + recorder.getWriteError().getMessage());
+        }
+        Log.i(TAG, "Trace capture stopped: " + recorder.getFile().getAbsolutePath() + " ("
+                + recorder.getRecordedPackets() + " packets, " + recorder.getDroppedPackets() + " dropped)");
+    }
+
+    // Feeds a recorded trace to the render thread from its own thread. Live packets are
+    // ignored until the replay finishes.
+    private void startTraceReplay(File file, boolean realTime) {
+        if (traceReplayer != null) {
+            Log.w(TAG, "Trace replay already running.");
+            return;
+        }
+        if (file == null || !file.isFile()) {
+            Log.e(TAG, "Trace file not found: " + file);
+            return;
+        }
+        PacketTraceReplayer replayer = new PacketTraceReplayer(file, realTime);
+        traceReplayer = replayer;
+        Thread replayThread = new Thread(() -> {
+            android.os.Process.setThreadPriority(android.os.Process.THREAD_PRIORITY_AUDIO);
+            Log.i(TAG, "Replaying trace " + file.getAbsolutePath() + (realTime ? " with original timing." : " as fast as possible."));
+            long start = System.nanoTime();
+            try {
+                long count = replayer.replay((data, offset, length, source, sourcePort, arrivalNanos) -> {
+                    // Wait for room rather than dropping, so fast replays stay deterministic
+                    while (isRunning && handoffQueue.isFull()) {
+                        LockSupport.parkNanos(REPLAY_BACKOFF_NANOS);
+                    }
+                    handoffQueue.offer(data, offset, length);
+                });
+                Log.i(TAG, "Trace replay finished: " + count + " packets in " + (System.nanoTime() - start) / 1000000 + " ms.");
+            } catch (IOException e) {
+                Log.e(TAG, "Trace replay failed: " + e.getMessage(), e);
+            } finally {
+                traceReplayer = null;
+            }
+        }, "ScreamTraceReplay");
+        replayThread.start();
+    }
+
+    // Only traces inside this app's own storage can be replayed, so a caller can't make the
+    // service read (and play) arbitrary files it has access to. Returns null if rejected.
+    private File resolveTraceFile(String path) {
+        File[] allowedDirs = {getExternalFilesDir(null), getFilesDir()};
+        try {
+            File file = new File(path).getCanonicalFile();
+            for (File dir : allowedDirs) {
+                if (dir != null && file.getPath().startsWith(dir.getCanonicalPath() + File.separator)) {
+                    return file;
+                }
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Can't resolve trace path " + path + ": " + e.getMessage());
+            return null;
+        }
+        Log.w(TAG, "Refusing to replay " + path + ": traces must be inside the app's files directory.");
+        return null;
+    }
+
+    private void stopTraceReplay() {
+        PacketTraceReplayer replayer = traceReplayer;
+        if (replayer != null) {
+            replayer.cancel();
+            Log.i(TAG, "Trace replay cancelled.");
+        }
+    }
+
+    // --- Channel Routing ---
+
+    // Reads an optional channel_routes extra from a start intent, e.g. "1,2@5;3,4@7" plays
+    // channels 1-2 on output device 5 and 3-4 on device 7; "" restores the single default output.
+    // Device ids are listed in the log whenever routes are rebuilt.
+    private void applyRoutingExtras(Intent intent) {
+        if (intent.hasExtra("channel_routes")) {
+            String routes = intent.getStringExtra("channel_routes");
+            channelRoutes = routes != null ? routes : "";
+            channelRoutesChanged = true;
+            Log.d(TAG, "Channel routes set to '" + channelRoutes + "', applied with the next packet.");
+        }
+    }
+
+    // Replaces the router with one built from channelRoutes (render thread only)
+    private void rebuildChannelRouter() {
+        channelRoutesChanged = false;
+        List<ChannelRouter.RouteSpec> specs;
+        try {
+            specs = ChannelRouter.parseRoutes(channelRoutes);
+        } catch (IllegalArgumentException e) {
+            Log.e(TAG, e.getMessage() + ". Using the default output.");
+            specs = ChannelRouter.parseRoutes(null);
+        }
+
+        ChannelRouter oldRouter = channelRouter;
+        if (oldRouter != null) {
+            oldRouter.release();
+            accumulateWriteStats(oldRouter);
+        }
+
+        AudioManager audioManager = (AudioManager) getSystemService(Context.AUDIO_SERVICE);
+        AudioDeviceInfo[] outputs = audioManager != null ? audioManager.getDevices(AudioManager.GET_DEVICES_OUTPUTS) : new AudioDeviceInfo[0];
+        for (AudioDeviceInfo output : outputs) {
+            Log.d(TAG, "Output device " + output.getId() + ": " + output.getProductName() + " (type " + output.getType() + ")");
+        }
+
+        ChannelRouter router = new ChannelRouter();
+        for (ChannelRouter.RouteSpec spec : specs) {
+            AudioDeviceInfo device = null;
+            if (spec.deviceId != 0) {
+                for (AudioDeviceInfo output : outputs) {
+                    if (output.getId() == spec.deviceId) {
+                        device = output;
+                        break;
+                    }
+                }
+                if (device == null) {
+                    Log.w(TAG, "No output device with id " + spec.deviceId + ", route " + spec + " uses default routing.");
+                }
+            }
+            router.addRoute(spec.channels, new AudioTrackSink(audioManager, device, spec.toString()));
+        }
+        channelRouter = router;
+        receiverCore.setRouter(router); // New sinks are configured with the next packet
+        Log.i(TAG, "Channel router built with " + specs.size() + " route(s): " + specs);
+    }
+
+    private void releaseSinks() {
+        ChannelRouter router = channelRouter;
+        if (router != null) {
+            router.release();
+            Log.d(TAG, "Audio sinks released.");
         }
     }
 
@@ -690,51 +1101,28 @@ public class AudioService extends Service {
 
 
     // --- Sleep/Inactivity Logic ---
-
-    private void resetInactivityTimer() {
-        inactivityHandler.removeCallbacks(inactivityRunnable); // Remove any existing callbacks
-        inactivityRunnable = () -> {
-            Log.i(TAG, "Inactivity timeout reached. Entering sleep mode.");
-            goToSleep();
-        };
-        inactivityHandler.postDelayed(inactivityRunnable, INACTIVITY_TIMEOUT_MS);
-         Log.v(TAG, "Inactivity timer reset (" + INACTIVITY_TIMEOUT_MS + "ms).");
-    }
+    // The core decides when to sleep and wake (on the render thread) and pauses/resumes the sinks
+    // itself; these run on the main thread afterwards to update locks, media session and notifications
 
     private void goToSleep() {
-        if (!isSleeping) {
-            isSleeping = true;
-            Log.i(TAG, "Entering sleep state. Releasing WakeLock, reducing check frequency.");
-            // Pause audio playback if desired during sleep
-            if (audioTrack != null && audioTrack.getPlayState() == AudioTrack.PLAYSTATE_PLAYING) {
-                 // audioTrack.pause(); // Optional: Pause audio track
-                 Log.d(TAG,"AudioTrack continues playing during sleep check phase.");
-            }
-            updateMediaPlaybackState(PlaybackStateCompat.STATE_PAUSED); // Reflect state in media session
-            updateNotifications("Sleeping (checking network)", PlaybackStateCompat.STATE_PAUSED); // Update both notifications
-            releaseWakeLocks(); // Release CPU and WiFi locks to save power
-            // Network thread will automatically use longer timeout now
-        }
+        Log.i(TAG, "Inactivity timeout reached. Entering sleep state. Releasing WakeLock, reducing check frequency.");
+        updateMediaPlaybackState(PlaybackStateCompat.STATE_PAUSED); // Reflect state in media session
+        updateNotifications("Sleeping (checking network)", PlaybackStateCompat.STATE_PAUSED); // Update both notifications
+        releaseWakeLocks(); // Release CPU and WiFi locks to save power
+        // Network thread will automatically use longer timeout now
     }
 
     private void wakeUpFromInactivity() {
-        if (isSleeping) {
-            isSleeping = false;
-            Log.i(TAG, "Waking up from sleep state. Acquiring WakeLock, increasing check frequency.");
-            acquireWakeLocks(); // Re-acquire locks
-            // Resume audio playback if it was paused
-            if (audioTrack != null && audioTrack.getPlayState() == AudioTrack.PLAYSTATE_PAUSED) {
-                // audioTrack.play();
-            }
-             updateMediaPlaybackState(PlaybackStateCompat.STATE_PLAYING); // Reflect state
-             updateNotifications("Receiving Audio", PlaybackStateCompat.STATE_PLAYING); // Update both notifications
-            // Network thread will automatically use shorter timeout now
-            resetInactivityTimer(); // Start the timer again now that we are active
-        }
+        Log.i(TAG, "Waking up from sleep state. Acquiring WakeLock, increasing check frequency.");
+        acquireWakeLocks(); // Re-acquire locks
+        updateMediaPlaybackState(PlaybackStateCompat.STATE_PLAYING); // Reflect state
+        updateNotifications("Receiving Audio", PlaybackStateCompat.STATE_PLAYING); // Update both notifications
+        // Network thread will automatically use shorter timeout now
     }
 
     // --- Intent Action Handling ---
-    private void handleIntentAction(String action) {
+    private void handleIntentAction(Intent intent) {
+        String action = intent.getAction();
         Log.d(TAG, "Handling action: " + action);
         switch (action) {
             case "ACTION_PLAY":
@@ -749,6 +1137,20 @@ public class AudioService extends Service {
                  // Corresponds to MediaSessionCompat.Callback.onStop()
                 if (mediaSession != null) mediaSession.getController().getTransportControls().stop();
                 break;
+            case "ACTION_START_TRACE":
+                startTraceCapture();
+                break;
+            case "ACTION_STOP_TRACE":
+                stopTraceCapture();
+                break;
+            case "ACTION_REPLAY_TRACE":
+                // Replays the given trace_path, or the most recent capture if none is given
+                String tracePath = intent.getStringExtra("trace_path");
+                File traceFile = tracePath != null ? resolveTraceFile(tracePath) : lastTraceFile;
+                if (traceFile != null) {
+                    startTraceReplay(traceFile, intent.getBooleanExtra("trace_realtime", true));
+                }
+                break;
             // Add cases for NEXT, PREVIOUS if needed
             default:
                 Log.w(TAG, "Unknown action received: " + action);
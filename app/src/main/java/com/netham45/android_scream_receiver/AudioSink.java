@@ -0,0 +1,53 @@
+package com.netham45.android_scream_receiver;
+
+// An output that plays one (possibly channel-split) sub-stream. The Android implementation is
+// AudioTrackSink; NullAudioSink discards audio so routing can be exercised on the JVM.
+// All calls come from the render thread, so implementations need no synchronization.
+interface AudioSink {
+
+    // Picks the rate to open an output device at from the rates it reports (empty means it takes
+    // any rate): the stream's own rate if the device supports it, else the lowest higher rate we
+    // can resample to, else the highest lower one. Falls back to the stream rate if none fit.
+    static int chooseDeviceSampleRate(int[] supportedRates, int sourceRate) {
+        int higher = 0;
+        int lower = 0;
+        for (int rate : supportedRates) {
+            if (rate == sourceRate) {
+                return sourceRate;
+            }
+            if (rate <= 0 || !PolyphaseResampler.isSupported(sourceRate, rate)) {
+                continue;
+            }
+            if (rate > sourceRate && (higher == 0 || rate < higher)) {
+                higher = rate;
+            } else if (rate < sourceRate && rate > lower) {
+                lower = rate;
+            }
+        }
+        return higher != 0 ? higher : lower != 0 ? lower : sourceRate;
+    }
+
+    // Prepares the sink for a stream format. encoding is an AudioFormat.ENCODING_* value.
+    // Returns false if the sink can't play this format.
+    boolean configure(int sampleRate, int channels, int encoding, int bytesPerSample);
+
+    // Plays interleaved PCM containing just this sink's channels. Must not block.
+    void write(byte[] data, int offset, int length);
+
+    // Pushes out any staged audio; called when the stream goes idle
+    void drain();
+
+    void pause();
+
+    void resume();
+
+    void release();
+
+    String getName();
+
+    long getWriteCalls();
+
+    long getBytesWritten();
+
+    long getBytesDropped();
+}
@@ -0,0 +1,314 @@
+package com.netham45.android_scream_receiver;
+
+import android.media.AudioAttributes;
+import android.media.AudioDeviceInfo;
+import android.media.AudioFormat;
+import android.media.AudioManager;
+import android.media.AudioTrack;
+import android.os.Build;
+import android.util.Log;
+
+// AudioSink backed by its own AudioTrack, optionally pinned to a specific output device.
+// Opens the track at the native mixer rate (resampling 16-bit audio in-app) and stages PCM
+// through an AudioWriteScheduler so writes are burst-aligned and never block.
+// The AudioManager output properties describe the primary output only. A sink pinned to
+// another device (USB, HDMI) takes its rate from AudioDeviceInfo.getSampleRates() instead,
+// keeping the stream's rate where the device supports it, and scales the primary burst size to
+// the same duration at that rate, since Android doesn't report a burst size per device.
+final class AudioTrackSink implements AudioSink {
+
+    private static final String TAG = "AndroidScreamReceiverAudioTrackSink";
+    private static final int DEFAULT_FRAMES_PER_BURST = 256; // Used if the device doesn't report its burst size
+    private static final int STAGING_BURSTS = 16; // Minimum staging buffer size ahead of the AudioTrack, in bursts
+    private static final AudioWriteScheduler.OverflowPolicy WRITE_OVERFLOW_POLICY = AudioWriteScheduler.OverflowPolicy.DROP_OLDEST;
+
+    private final AudioManager audioManager;
+    private final AudioDeviceInfo preferredDevice; // Null to follow the system's default routing
+    private final String name;
+
+    private AudioTrack audioTrack;
+    private AudioWriteScheduler writeScheduler; // Stages PCM for burst-aligned, non-blocking writes
+    private PolyphaseResampler resampler; // Non-null when the stream rate differs from the native output rate
+    private byte[] resampleBuffer = new byte[8192];
+    private int currentAudioFormat = 0;
+
+    // Write statistics carried over from schedulers of previous AudioTracks
+    private long totalWriteCalls = 0;
+    private long totalBytesWritten = 0;
+    private long totalBytesDropped = 0;
+
+    AudioTrackSink(AudioManager audioManager, AudioDeviceInfo preferredDevice, String name) {
+        this.audioManager = audioManager;
+        this.preferredDevice = preferredDevice;
+        this.name = name;
+    }
+
+    @Override
+    public boolean configure(int sampleRate, int channels, int encoding, int bytesPerSample) {
+        int channelConfig = channelMaskFor(channels);
+        int frameSizeBytes = channels * bytesPerSample;
+
+        // Open the track at the device's native mixer rate so it can take the fast path,
+        // converting in-app; fall back to the platform resampler where we can't
+        int outputRate = preferredDevice != null
+                ? AudioSink.chooseDeviceSampleRate(preferredDevice.getSampleRates(), sampleRate)
+                : getNativeOutputSampleRate(sampleRate);
+        PolyphaseResampler newResampler = null;
+        if (outputRate != sampleRate) {
+            if (encoding == AudioFormat.ENCODING_PCM_16BIT && PolyphaseResampler.isSupported(sampleRate, outputRate)) {
+                newResampler = new PolyphaseResampler(sampleRate, outputRate, channels);
+                Log.i(TAG, name + ": resampling in-app from " + sampleRate + " Hz to native " + outputRate + " Hz.");
+            } else {
+                Log.w(TAG, name + ": can't resample " + (bytesPerSample * 8) + "-bit audio from " + sampleRate + " Hz in-app, opening track at source rate.");
+                outputRate = sampleRate;
+            }
+        }
+
+        if (!initializeAudioTrack(outputRate, channelConfig, encoding, frameSizeBytes)) {
+            resampler = null;
+            return false;
+        }
+        resampler = newResampler;
+        currentAudioFormat = encoding;
+        return true;
+    }
+
+    // Stages PCM and writes whole bursts to the AudioTrack without blocking
+    @Override
+    public void write(byte[] data, int offset, int length) {
+        AudioTrack track = audioTrack;
+        if (track != null && writeScheduler != null && track.getPlayState() == AudioTrack.PLAYSTATE_PLAYING) {
+            if (resampler != null) {
+                int needed = resampler.maxOutputBytes(length);
+                if (resampleBuffer.length < needed) {
+                    resampleBuffer = new byte[needed]; // Only grows for unusually large packets
+                }
+                int resampledLength = resampler.process(data, offset, length, resampleBuffer, 0);
+                writeScheduler.enqueue(resampleBuffer, 0, resampledLength);
+            } else {
+                writeScheduler.enqueue(data, offset, length);
+            }
+            int bytesWritten = writeScheduler.flush();
+            if (bytesWritten < 0) {
+                Log.e(TAG, name + ": AudioTrack write error: " + bytesWritten + " (Format: " + currentAudioFormat + ")");
+            }
+        } else if (track == null || track.getPlayState() != AudioTrack.PLAYSTATE_PAUSED) { // Paused sinks drop quietly
+            Log.w(TAG, name + ": AudioTrack not ready or not playing, discarding data.");
+        }
+    }
+
+    // Pushes out any staged partial burst
+    @Override
+    public void drain() {
+        AudioTrack track = audioTrack;
+        if (track != null && writeScheduler != null && writeScheduler.getStagedBytes() > 0
+                && track.getPlayState() == AudioTrack.PLAYSTATE_PLAYING) {
+            writeScheduler.drain();
+        }
+    }
+
+    // Pauses playback; flushes the track and the staging buffer so stale audio isn't played on resume
+    @Override
+    public void pause() {
+        AudioTrack track = audioTrack;
+        if (track != null && track.getPlayState() == AudioTrack.PLAYSTATE_PLAYING) {
+            try {
+                track.pause();
+                track.flush();
+                writeScheduler.clear();
+                if (resampler != null) {
+                    resampler.reset();
+                }
+                Log.d(TAG, name + ": AudioTrack paused.");
+            } catch (IllegalStateException e) {
+                Log.e(TAG, name + ": error pausing AudioTrack: " + e.getMessage());
+            }
+        }
+    }
+
+    @Override
+    public void resume() {
+        AudioTrack track = audioTrack;
+        if (track != null && track.getPlayState() == AudioTrack.PLAYSTATE_PAUSED) {
+            try {
+                track.play();
+                Log.d(TAG, name + ": AudioTrack resumed.");
+            } catch (IllegalStateException e) {
+                Log.e(TAG, name + ": error resuming AudioTrack: " + e.getMessage());
+            }
+        }
+    }
+
+    @Override
+    public void release() {
+        AudioTrack track = audioTrack;
+        if (track != null) {
+            if (track.getPlayState() == AudioTrack.PLAYSTATE_PLAYING) {
+                try {
+                    track.stop();
+                } catch (IllegalStateException e) {
+                    Log.e(TAG, name + ": error stopping AudioTrack: " + e.getMessage());
+                }
+            }
+            track.release();
+            audioTrack = null;
+            if (writeScheduler != null) {
+                totalWriteCalls += writeScheduler.getWriteCalls();
+                totalBytesWritten += writeScheduler.getBytesWritten();
+                totalBytesDropped += writeScheduler.getBytesDropped();
+            }
+            writeScheduler = null;
+            Log.d(TAG, name + ": AudioTrack released.");
+        }
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public long getWriteCalls() {
+        AudioWriteScheduler scheduler = writeScheduler;
+        return totalWriteCalls + (scheduler != null ? scheduler.getWriteCalls() : 0);
+    }
+
+    @Override
+    public long getBytesWritten() {
+        AudioWriteScheduler scheduler = writeScheduler;
+        return totalBytesWritten + (scheduler != null ? scheduler.getBytesWritten() : 0);
+    }
+
+    @Override
+    public long getBytesDropped() {
+        AudioWriteScheduler scheduler = writeScheduler;
+        return totalBytesDropped + (scheduler != null ? scheduler.getBytesDropped() : 0);
+    }
+
+    // Initializes or re-initializes the AudioTrack with the given parameters
+    private boolean initializeAudioTrack(int sampleRate, int channelConfig, int audioFormat, int frameSizeBytes) {
+        Log.d(TAG, name + ": initializing AudioTrack with Rate: " + sampleRate + ", Channels: " + channelConfig + ", Format: " + audioFormat);
+
+        // Release existing track if it exists
+        release();
+
+        // Validate parameters before proceeding
+        if (sampleRate <= 0 || channelConfig == 0 || audioFormat == 0 || frameSizeBytes <= 0) {
+            Log.e(TAG, name + ": invalid audio parameters received for AudioTrack initialization.");
+            return false;
+        }
+
+        int minBufferSize = AudioTrack.getMinBufferSize(sampleRate, channelConfig, audioFormat);
+        if (minBufferSize == AudioTrack.ERROR_BAD_VALUE || minBufferSize == AudioTrack.ERROR) {
+            Log.e(TAG, name + ": invalid audio parameters for getMinBufferSize.");
+            return false;
+        }
+
+        // Writes are issued in whole device bursts, so the track must hold at least two of them
+        int burstBytes = getOutputFramesPerBurst(sampleRate) * frameSizeBytes;
+        int bufferSize = Math.max(minBufferSize, 2 * burstBytes);
+        Log.d(TAG, name + ": calculated minBufferSize: " + minBufferSize + ", Using bufferSize: " + bufferSize + ", Burst: " + burstBytes + " bytes");
+
+        try {
+            AudioTrack track = new AudioTrack.Builder()
+                    .setAudioAttributes(new AudioAttributes.Builder()
+                            .setUsage(AudioAttributes.USAGE_MEDIA)
+                            .setContentType(AudioAttributes.CONTENT_TYPE_MUSIC)
+                            .build())
+                    .setAudioFormat(new AudioFormat.Builder()
+                            .setEncoding(audioFormat)
+                            .setSampleRate(sampleRate)
+                            .setChannelMask(channelConfig)
+                            .build())
+                    .setBufferSizeInBytes(bufferSize)
+                    .setTransferMode(AudioTrack.MODE_STREAM) // Streaming mode
+                    .build();
+
+            if (preferredDevice != null && !track.setPreferredDevice(preferredDevice)) {
+                Log.w(TAG, name + ": output device " + preferredDevice.getId() + " rejected, using default routing.");
+            }
+
+            // Start playback immediately (it will wait for data)
+            track.play();
+
+            writeScheduler = new AudioWriteScheduler(
+                    (data, offset, length) -> track.write(data, offset, length, AudioTrack.WRITE_NON_BLOCKING),
+                    burstBytes, frameSizeBytes, Math.max(STAGING_BURSTS * burstBytes, 2 * bufferSize), WRITE_OVERFLOW_POLICY);
+            audioTrack = track;
+            Log.i(TAG, name + ": AudioTrack initialized and playing. Buffer size: " + bufferSize + " bytes");
+            return true;
+
+        } catch (IllegalArgumentException | UnsupportedOperationException e) {
+            Log.e(TAG, name + ": failed to create AudioTrack: " + e.getMessage(), e);
+            audioTrack = null; // Ensure track is null on failure
+            writeScheduler = null;
+            return false;
+        }
+    }
+
+    // Primary output mixer sample rate, or fallbackRate if the device doesn't report one
+    private int getNativeOutputSampleRate(int fallbackRate) {
+        String sampleRate = audioManager != null ? audioManager.getProperty(AudioManager.PROPERTY_OUTPUT_SAMPLE_RATE) : null;
+        if (sampleRate != null) {
+            try {
+                int rate = Integer.parseInt(sampleRate);
+                if (rate > 0) {
+                    return rate;
+                }
+            } catch (NumberFormatException e) {
+                Log.w(TAG, "Bad PROPERTY_OUTPUT_SAMPLE_RATE: " + sampleRate);
+            }
+        }
+        return fallbackRate;
+    }
+
+    // Burst size in frames at outputRate, used to align AudioTrack writes. The primary output's
+    // burst, scaled to the same duration when the track runs at a different rate.
+    private int getOutputFramesPerBurst(int outputRate) {
+        int frames = getPrimaryFramesPerBurst();
+        int primaryRate = getNativeOutputSampleRate(outputRate);
+        if (primaryRate != outputRate) {
+            frames = (int) Math.max(1, ((long) frames * outputRate + primaryRate / 2) / primaryRate);
+        }
+        return frames;
+    }
+
+    // Primary output mixer burst size in frames
+    private int getPrimaryFramesPerBurst() {
+        String framesPerBuffer = audioManager != null ? audioManager.getProperty(AudioManager.PROPERTY_OUTPUT_FRAMES_PER_BUFFER) : null;
+        if (framesPerBuffer != null) {
+            try {
+                int frames = Integer.parseInt(framesPerBuffer);
+                if (frames > 0) {
+                    return frames;
+                }
+            } catch (NumberFormatException e) {
+                Log.w(TAG, "Bad PROPERTY_OUTPUT_FRAMES_PER_BUFFER: " + framesPerBuffer);
+            }
+        }
+        return DEFAULT_FRAMES_PER_BURST;
+    }
+
+    // Basic channel count -> output mask mapping
+    private static int channelMaskFor(int channels) {
+        switch (channels) {
+            case 1:
+                return AudioFormat.CHANNEL_OUT_MONO;
+            case 2:
+                return AudioFormat.CHANNEL_OUT_STEREO;
+            case 4: // Example: Quad
+                return AudioFormat.CHANNEL_OUT_QUAD;
+            case 6: // Example: 5.1
+                return AudioFormat.CHANNEL_OUT_5POINT1;
+            case 8: // Example: 7.1
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+                    return AudioFormat.CHANNEL_OUT_7POINT1_SURROUND;
+                }
+                Log.w(TAG, "7.1 surround not directly supported below Android M, using default.");
+                return AudioFormat.CHANNEL_OUT_DEFAULT; // Fallback
+            default:
+                Log.w(TAG, "Unsupported channel count: " + channels + ". Using default.");
+                return AudioFormat.CHANNEL_OUT_DEFAULT; // Fallback
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package com.netham45.android_scream_receiver;
+
+// Coalesces incoming PCM into a preallocated staging buffer and hands it to the output
+// in whole multiples of the device burst size. Used with non-blocking writes so the
+// caller never stalls inside AudioTrack.write(); if the output can't keep up and the
+// staging buffer fills, the overflow policy decides which audio is discarded.
+final class AudioWriteScheduler {
+
+    // Destination for staged PCM. Must not block; returns bytes accepted or a negative error code.
+    interface PcmOutput {
+        int write(byte[] data, int offset, int length);
+    }
+
+    enum OverflowPolicy {
+        DROP_OLDEST, // Discard the oldest staged audio to make room (keeps latency bounded)
+        DROP_NEWEST  // Discard the part of the incoming audio that doesn't fit
+    }
+
+    private final PcmOutput output;
+    private final int burstBytes;
+    private final int frameBytes;
+    private final OverflowPolicy overflowPolicy;
+    private final byte[] staging;
+    private int readPos = 0;
+    private int writePos = 0;
+
+    // Counters for metrics (only touched by the writing thread)
+    private long writeCalls = 0;
+    private long bytesWritten = 0;
+    private long bytesDropped = 0;
+    private long overflowEvents = 0;
+    private long writeErrors = 0;
+
+    // capacityBytes is rounded up to a whole number of bursts
+    AudioWriteScheduler(PcmOutput output, int burstBytes, int frameBytes, int capacityBytes, OverflowPolicy overflowPolicy) {
+        if (burstBytes <= 0 || frameBytes <= 0 || burstBytes % frameBytes != 0) {
+            throw new IllegalArgumentException("Burst size " + burstBytes + " must be a positive multiple of frame size " + frameBytes);
+        }
+        this.output = output;
+        this.burstBytes = burstBytes;
+        this.frameBytes = frameBytes;
+        this.overflowPolicy = overflowPolicy;
+        int bursts = Math.max(2, (capacityBytes + burstBytes - 1) / burstBytes);
+        this.staging = new byte[bursts * burstBytes];
+    }
+
+    // Copies PCM into the staging buffer, applying the overflow policy if it doesn't fit
+    void enqueue(byte[] data, int offset, int length) {
+        length -= length % frameBytes; // Never stage partial frames
+        int free = staging.length - (writePos - readPos);
+        if (length > free) {
+            overflowEvents++;
+            if (overflowPolicy == OverflowPolicy.DROP_NEWEST) {
+                int keep = free - free % frameBytes;
+                bytesDropped += length - keep;
+                length = keep;
+            } else {
+                if (length > staging.length) {
+                    // Incoming block alone is bigger than the buffer; keep only its newest part
+                    int skip = length - staging.length;
+                    bytesDropped += skip;
+                    offset += skip;
+                    length = staging.length;
+                }
+                int drop = Math.min(length - free, writePos - readPos);
+                drop += (frameBytes - drop % frameBytes) % frameBytes; // Keep staged data frame aligned
+                drop = Math.min(drop, writePos - readPos);
+                readPos += drop;
+                bytesDropped += drop;
+            }
+        }
+        if (length <= 0) {
+            return;
+        }
+        if (writePos + length > staging.length) {
+            compact();
+        }
+        System.arraycopy(data, offset, staging, writePos, length);
+        writePos += length;
+    }
+
+    // Writes every complete burst currently staged in one output call.
+    // Returns bytes accepted, 0 if less than a burst is staged, or a negative error code.
+    int flush() {
+        int whole = ((writePos - readPos) / burstBytes) * burstBytes;
+        return whole > 0 ? writeStaged(whole) : 0;
+    }
+
+    // Writes everything staged, including a trailing partial burst. Used when the stream goes
+    // idle so the tail of the audio isn't left sitting in the staging buffer.
+    int drain() {
+        int staged = writePos - readPos;
+        return staged > 0 ? writeStaged(staged) : 0;
+    }
+
+    // Discards everything staged (e.g. when the output is flushed)
+    void clear() {
+        readPos = 0;
+        writePos = 0;
+    }
+
+    int getStagedBytes() {
+        return writePos - readPos;
+    }
+
+    int getBurstBytes() {
+        return burstBytes;
+    }
+
+    long getWriteCalls() {
+        return writeCalls;
+    }
+
+    long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    long getBytesDropped() {
+        return bytesDropped;
+    }
+
+    long getOverflowEvents() {
+        return overflowEvents;
+    }
+
+    long getWriteErrors() {
+        return writeErrors;
+    }
+
+    private int writeStaged(int length) {
+        int written = output.write(staging, readPos, length);
+        writeCalls++;
+        if (written < 0) {
+            writeErrors++;
+            return written;
+        }
+        readPos += written;
+        bytesWritten += written;
+        if (readPos == writePos) {
+            readPos = 0;
+            writePos = 0;
+        }
+        return written;
+    }
+
+    private void compact() {
+        int staged = writePos - readPos;
+        System.arraycopy(staging, readPos, staging, 0, staged);
+        readPos = 0;
+        writePos = staged;
+    }
+}
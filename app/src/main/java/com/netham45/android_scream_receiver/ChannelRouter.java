@@ -0,0 +1,244 @@
+package com.netham45.android_scream_receiver;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Splits interleaved multichannel PCM into per-sink sub-streams, e.g. channels 1-2 to one
+// output and 3-4 to another. Each route has its own preallocated buffer that the selected
+// channels are re-interleaved into; a route covering all channels in order is passed through
+// without copying. Render thread only.
+final class ChannelRouter {
+
+    // One configured route: 0-based source channels (null = all, in order) and the preferred
+    // output device id (0 = system default)
+    static final class RouteSpec {
+        final int[] channels;
+        final int deviceId;
+
+        RouteSpec(int[] channels, int deviceId) {
+            this.channels = channels;
+            this.deviceId = deviceId;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder();
+            if (channels == null) {
+                builder.append("all");
+            } else {
+                for (int i = 0; i < channels.length; i++) {
+                    builder.append(i == 0 ? "" : ",").append(channels[i] + 1);
+                }
+            }
+            return deviceId != 0 ? builder.append('@').append(deviceId).toString() : builder.toString();
+        }
+    }
+
+    private static final class Route {
+        final int[] channels;
+        final AudioSink sink;
+        boolean passthrough;
+        boolean active;
+        int frameBytes;
+        byte[] buffer = new byte[0];
+
+        Route(int[] channels, AudioSink sink) {
+            this.channels = channels;
+            this.sink = sink;
+        }
+    }
+
+    private final ArrayList<Route> routes = new ArrayList<>();
+    private int sourceChannels = 0;
+    private int bytesPerSample = 0;
+
+    // Parses a route list such as "1,2@5;3,4@7": routes separated by ';', each a comma-separated
+    // list of 1-based source channels, optionally followed by '@' and an output device id.
+    // An empty or null spec means a single route with all channels to the default device.
+    static List<RouteSpec> parseRoutes(String spec) {
+        List<RouteSpec> result = new ArrayList<>();
+        if (spec == null || spec.trim().isEmpty()) {
+            result.add(new RouteSpec(null, 0));
+            return result;
+        }
+        for (String part : spec.split(";")) {
+            part = part.trim();
+            if (part.isEmpty()) {
+                continue;
+            }
+            int deviceId = 0;
+            int at = part.indexOf('@');
+            if (at >= 0) {
+                deviceId = parseNumber(part.substring(at + 1), spec);
+                part = part.substring(0, at).trim();
+            }
+            String[] channelNames = part.split(",");
+            int[] channels = new int[channelNames.length];
+            for (int i = 0; i < channelNames.length; i++) {
+                int channel = parseNumber(channelNames[i], spec);
+                if (channel < 1) {
+                    throw new IllegalArgumentException("Channels are numbered from 1 in route spec: " + spec);
+                }
+                channels[i] = channel - 1;
+            }
+            result.add(new RouteSpec(channels, deviceId));
+        }
+        if (result.isEmpty()) {
+            throw new IllegalArgumentException("No routes in spec: " + spec);
+        }
+        return result;
+    }
+
+    // channels are 0-based source channel indices, or null for all channels in order
+    void addRoute(int[] channels, AudioSink sink) {
+        routes.add(new Route(channels, sink));
+    }
+
+    // Configures every sink for a new stream format. Routes that reference channels the stream
+    // doesn't have, or whose sink rejects the format, stay inactive. Returns the active route count.
+    int configure(int sampleRate, int channels, int encoding, int bytesPerSample) {
+        this.sourceChannels = channels;
+        this.bytesPerSample = bytesPerSample;
+        int active = 0;
+        for (int i = 0; i < routes.size(); i++) {
+            Route route = routes.get(i);
+            int routeChannels = route.channels != null ? route.channels.length : channels;
+            route.active = false;
+            if (!fitsSource(route.channels, channels)) {
+                route.sink.release();
+                continue;
+            }
+            route.passthrough = isIdentity(route.channels, channels);
+            route.frameBytes = routeChannels * bytesPerSample;
+            route.active = route.sink.configure(sampleRate, routeChannels, encoding, bytesPerSample);
+            if (route.active) {
+                active++;
+            }
+        }
+        return active;
+    }
+
+    // Splits one block of interleaved source PCM across the active routes
+    void route(byte[] data, int offset, int length) {
+        int sourceFrameBytes = sourceChannels * bytesPerSample;
+        if (sourceFrameBytes <= 0) {
+            return;
+        }
+        int frames = length / sourceFrameBytes;
+        for (int i = 0; i < routes.size(); i++) {
+            Route route = routes.get(i);
+            if (!route.active) {
+                continue;
+            }
+            if (route.passthrough) {
+                route.sink.write(data, offset, frames * sourceFrameBytes);
+                continue;
+            }
+            int needed = frames * route.frameBytes;
+            if (route.buffer.length < needed) {
+                route.buffer = new byte[needed]; // Only grows when packets get bigger
+            }
+            extractChannels(data, offset, frames, sourceChannels, bytesPerSample, route.channels, route.buffer, 0);
+            route.sink.write(route.buffer, 0, needed);
+        }
+    }
+
+    // Copies the selected channels of each source frame into dst, re-interleaved in route order
+    static void extractChannels(byte[] src, int srcOffset, int frames, int srcChannels, int bytesPerSample,
+                                int[] channels, byte[] dst, int dstOffset) {
+        int srcFrameBytes = srcChannels * bytesPerSample;
+        int end = srcOffset + frames * srcFrameBytes;
+        if (bytesPerSample == 2 && channels.length == 2) {
+            // Common case: a 16-bit stereo pair out of a multichannel stream
+            int a = channels[0] * 2;
+            int b = channels[1] * 2;
+            for (int s = srcOffset, d = dstOffset; s < end; s += srcFrameBytes, d += 4) {
+                dst[d] = src[s + a];
+                dst[d + 1] = src[s + a + 1];
+                dst[d + 2] = src[s + b];
+                dst[d + 3] = src[s + b + 1];
+            }
+            return;
+        }
+        int d = dstOffset;
+        for (int s = srcOffset; s < end; s += srcFrameBytes) {
+            for (int c = 0; c < channels.length; c++) {
+                int from = s + channels[c] * bytesPerSample;
+                for (int k = 0; k < bytesPerSample; k++) {
+                    dst[d++] = src[from + k];
+                }
+            }
+        }
+    }
+
+    void drain() {
+        for (int i = 0; i < routes.size(); i++) {
+            Route route = routes.get(i);
+            if (route.active) {
+                route.sink.drain();
+            }
+        }
+    }
+
+    void pause() {
+        for (int i = 0; i < routes.size(); i++) {
+            routes.get(i).sink.pause();
+        }
+    }
+
+    void resume() {
+        for (int i = 0; i < routes.size(); i++) {
+            routes.get(i).sink.resume();
+        }
+    }
+
+    void release() {
+        for (int i = 0; i < routes.size(); i++) {
+            routes.get(i).sink.release();
+            routes.get(i).active = false;
+        }
+    }
+
+    int getRouteCount() {
+        return routes.size();
+    }
+
+    AudioSink getSink(int index) {
+        return routes.get(index).sink;
+    }
+
+    private static boolean fitsSource(int[] channels, int sourceChannels) {
+        if (channels == null) {
+            return sourceChannels > 0;
+        }
+        for (int channel : channels) {
+            if (channel >= sourceChannels) {
+                return false;
+            }
+        }
+        return channels.length > 0;
+    }
+
+    private static boolean isIdentity(int[] channels, int sourceChannels) {
+        if (channels == null) {
+            return true;
+        }
+        if (channels.length != sourceChannels) {
+            return false;
+        }
+        for (int i = 0; i < channels.length; i++) {
+            if (channels[i] != i) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int parseNumber(String text, String spec) {
+        try {
+            return Integer.parseInt(text.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Bad number '" + text + "' in route spec: " + spec);
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package com.netham45.android_scream_receiver;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.LinkAddress;
+import android.net.LinkProperties;
+import android.net.Network;
+import android.util.Log;
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.util.HashSet;
+import java.util.Set;
+
+// NetworkMonitor backed by ConnectivityManager's default network callback. Reports a change
+// when the default network switches (Wi-Fi <-> Ethernet, reconnect after roaming) or when the
+// current network's interface or IPv4 addresses change. Other link property updates (IPv6
+// privacy address rotation, address lifetime refreshes, DNS, routes) don't affect the IPv4
+// multicast group membership and are ignored, so they don't cause needless socket rebuilds.
+final class ConnectivityNetworkMonitor implements NetworkMonitor {
+
+    private static final String TAG = "AndroidScreamReceiverNetworkMonitor";
+
+    private final ConnectivityManager connectivityManager;
+    private ConnectivityManager.NetworkCallback callback;
+
+    ConnectivityNetworkMonitor(Context context) {
+        connectivityManager = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+    }
+
+    @Override
+    public void start(final Listener listener) {
+        if (connectivityManager == null) {
+            Log.e(TAG, "ConnectivityManager unavailable, network changes won't be detected.");
+            return;
+        }
+        if (callback != null) {
+            return;
+        }
+        callback = new ConnectivityManager.NetworkCallback() {
+            private Network currentNetwork;
+            private LinkProperties currentLinkProperties;
+
+            @Override
+            public void onAvailable(Network network) {
+                if (network.equals(currentNetwork)) {
+                    return;
+                }
+                currentNetwork = network;
+                currentLinkProperties = connectivityManager.getLinkProperties(network);
+                String interfaceName = currentLinkProperties != null ? currentLinkProperties.getInterfaceName() : null;
+                Log.i(TAG, "Default network available: " + network + " (" + interfaceName + ")");
+                listener.onNetworkChanged(interfaceName);
+            }
+
+            @Override
+            public void onLinkPropertiesChanged(Network network, LinkProperties linkProperties) {
+                if (!network.equals(currentNetwork)) {
+                    return;
+                }
+                LinkProperties previous = currentLinkProperties;
+                currentLinkProperties = linkProperties;
+                if (previous == null || NetworkMonitor.linkChanged(
+                        previous.getInterfaceName(), ipv4Addresses(previous),
+                        linkProperties.getInterfaceName(), ipv4Addresses(linkProperties))) {
+                    Log.i(TAG, "Default network link changed: " + linkProperties.getInterfaceName());
+                    listener.onNetworkChanged(linkProperties.getInterfaceName());
+                }
+            }
+
+            @Override
+            public void onLost(Network network) {
+                if (!network.equals(currentNetwork)) {
+                    return;
+                }
+                currentNetwork = null;
+                currentLinkProperties = null;
+                Log.i(TAG, "Default network lost: " + network);
+                listener.onNetworkLost();
+            }
+        };
+        connectivityManager.registerDefaultNetworkCallback(callback);
+        Log.d(TAG, "Network monitor started.");
+    }
+
+    @Override
+    public void stop() {
+        if (callback != null && connectivityManager != null) {
+            try {
+                connectivityManager.unregisterNetworkCallback(callback);
+            } catch (IllegalArgumentException e) {
+                Log.w(TAG, "Network callback was not registered: " + e.getMessage());
+            }
+            Log.d(TAG, "Network monitor stopped.");
+        }
+        callback = null;
+    }
+
+    // The addresses only, without LinkAddress flags, scope or lifetimes
+    private static Set<InetAddress> ipv4Addresses(LinkProperties linkProperties) {
+        Set<InetAddress> addresses = new HashSet<>();
+        for (LinkAddress linkAddress : linkProperties.getLinkAddresses()) {
+            if (linkAddress.getAddress() instanceof Inet4Address) {
+                addresses.add(linkAddress.getAddress());
+            }
+        }
+        return addresses;
+    }
+}
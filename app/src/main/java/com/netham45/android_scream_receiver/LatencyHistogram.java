@@ -0,0 +1,115 @@
+package com.netham45.android_scream_receiver;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Fixed-size, lock-free latency histogram in the style of HdrHistogram.
+// Values (nanoseconds) below 64 are counted exactly; above that each power of two is split into
+// 32 linear sub-buckets, giving ~3% worst-case relative error up to MAX_VALUE_NANOS (~68 s).
+// record() never allocates or blocks, so it is safe to call from the audio threads; readers
+// (metrics logging) may run concurrently and see a slightly inconsistent snapshot.
+final class LatencyHistogram {
+
+    static final long MAX_VALUE_NANOS = (1L << 36) - 1; // Larger values are clamped
+
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS; // 32
+    private static final int LINEAR_LIMIT = SUB_BUCKETS * 2; // 64, values below this are exact
+    private static final int BUCKET_COUNT = indexFor(MAX_VALUE_NANOS) + 1;
+
+    private final String name;
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong totalCount = new AtomicLong();
+    private final AtomicLong totalNanos = new AtomicLong();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    LatencyHistogram(String name) {
+        this.name = name;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        } else if (nanos > MAX_VALUE_NANOS) {
+            nanos = MAX_VALUE_NANOS;
+        }
+        counts.incrementAndGet(indexFor(nanos));
+        totalCount.incrementAndGet();
+        totalNanos.addAndGet(nanos);
+        long max = maxNanos.get();
+        while (nanos > max && !maxNanos.compareAndSet(max, nanos)) {
+            max = maxNanos.get();
+        }
+    }
+
+    long getCount() {
+        return totalCount.get();
+    }
+
+    long getMaxNanos() {
+        return maxNanos.get();
+    }
+
+    long getMeanNanos() {
+        long count = totalCount.get();
+        return count == 0 ? 0 : totalNanos.get() / count;
+    }
+
+    // Upper bound of the bucket holding the given percentile (0-100), or 0 if empty
+    long getPercentileNanos(double percentile) {
+        long count = totalCount.get();
+        if (count == 0) {
+            return 0;
+        }
+        long target = Math.max(1, (long) Math.ceil(count * percentile / 100.0));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += counts.get(i);
+            if (seen >= target) {
+                return Math.min(highestValueFor(i), maxNanos.get());
+            }
+        }
+        return maxNanos.get();
+    }
+
+    // Clears all counts; samples recorded concurrently with a reset may be partly lost
+    void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts.set(i, 0);
+        }
+        totalCount.set(0);
+        totalNanos.set(0);
+        maxNanos.set(0);
+    }
+
+    // One-line summary in microseconds for the metrics log
+    String summary() {
+        return name + ": n=" + getCount()
+                + " p50=" + getPercentileNanos(50) / 1000
+                + " p99=" + getPercentileNanos(99) / 1000
+                + " p99.9=" + getPercentileNanos(99.9) / 1000
+                + " max=" + getMaxNanos() / 1000 + " us";
+    }
+
+    private static int indexFor(long value) {
+        if (value < LINEAR_LIMIT) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value); // >= 6
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) - SUB_BUCKETS; // 0..31
+        return LINEAR_LIMIT + (exponent - SUB_BUCKET_BITS - 1) * SUB_BUCKETS + subBucket;
+    }
+
+    private static long highestValueFor(int index) {
+        if (index < LINEAR_LIMIT) {
+            return index;
+        }
+        int exponent = (index - LINEAR_LIMIT) / SUB_BUCKETS + SUB_BUCKET_BITS + 1;
+        long top = SUB_BUCKETS + (index - LINEAR_LIMIT) % SUB_BUCKETS;
+        return ((top + 1) << (exponent - SUB_BUCKET_BITS)) - 1;
+    }
+}
@@ -3,9 +3,11 @@ package com.netham45.android_scream_receiver;
 import android.Manifest;
 import android.app.Activity;
 import android.content.Intent;
+import android.content.pm.ApplicationInfo;
 import android.content.pm.PackageManager;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.Process;
 import android.util.Log;
 import android.widget.Toast;
 
@@ -16,10 +18,30 @@ public class MainActivity extends Activity {
 
     private static final String TAG = "AndroidScreamReceiverMainActivity";
     private static final int NOTIFICATION_PERMISSION_REQUEST_CODE = 101;
+    private static final int MAX_CHANNEL_ROUTES_LENGTH = 256;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
+
+        // Forward trace capture/replay commands to the running service, e.g.
+        // adb shell am start -n com.netham45.android_scream_receiver/.MainActivity -a ACTION_START_TRACE
+        // This activity is exported, so the commands are only accepted by debuggable builds.
+        String action = getIntent() != null ? getIntent().getAction() : null;
+        if ("ACTION_START_TRACE".equals(action) || "ACTION_STOP_TRACE".equals(action) || "ACTION_REPLAY_TRACE".equals(action)) {
+            if (!isDebuggable()) {
+                Log.w(TAG, "Ignoring " + action + ": trace commands are only available in debug builds.");
+                finish();
+                return;
+            }
+            Log.d(TAG, "Forwarding " + action + " to AudioService.");
+            Intent serviceIntent = new Intent(getIntent());
+            serviceIntent.setClass(this, AudioService.class);
+            startService(serviceIntent);
+            finish();
+            return;
+        }
+
         Log.d(TAG, "onCreate: Checking notification permission.");
 
         // Check for notification permission on Android 13+
@@ -47,6 +69,9 @@ public class MainActivity extends Activity {
     private void startAudioServiceAndFinish() {
         Log.d(TAG, "Starting AudioService.");
         Intent serviceIntent = new Intent(this, AudioService.class);
+        if (getIntent() != null) {
+            copyServiceSettings(getIntent(), serviceIntent);
+        }
         // Use startForegroundService for Android O+
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
             startForegroundService(serviceIntent);
@@ -59,6 +84,45 @@ public class MainActivity extends Activity {
         finish();
     }
 
+    // Passes through optional service settings, e.g. --ei render_priority -19 --es channel_routes "1,2;3,4".
+    // This activity is exported, so only known extras are copied and each one is validated.
+    // busy_poll keeps a core spinning and is only accepted by debuggable builds.
+    private void copyServiceSettings(Intent source, Intent target) {
+        for (String name : new String[]{"receive_priority", "render_priority"}) {
+            if (source.hasExtra(name)) {
+                int priority = source.getIntExtra(name, Integer.MIN_VALUE);
+                if (priority >= Process.THREAD_PRIORITY_URGENT_AUDIO && priority <= Process.THREAD_PRIORITY_LOWEST) {
+                    target.putExtra(name, priority);
+                } else {
+                    Log.w(TAG, "Ignoring " + name + ": not an int between " + Process.THREAD_PRIORITY_URGENT_AUDIO + " and " + Process.THREAD_PRIORITY_LOWEST + ".");
+                }
+            }
+        }
+        if (source.hasExtra("channel_routes")) {
+            String routes = source.getStringExtra("channel_routes");
+            try {
+                if (routes != null && routes.length() > MAX_CHANNEL_ROUTES_LENGTH) {
+                    throw new IllegalArgumentException("Route spec longer than " + MAX_CHANNEL_ROUTES_LENGTH + " characters");
+                }
+                ChannelRouter.parseRoutes(routes);
+                target.putExtra("channel_routes", routes != null ? routes : "");
+            } catch (IllegalArgumentException e) {
+                Log.w(TAG, "Ignoring channel_routes: " + e.getMessage());
+            }
+        }
+        if (source.hasExtra("busy_poll")) {
+            if (isDebuggable()) {
+                target.putExtra("busy_poll", source.getBooleanExtra("busy_poll", false));
+            } else {
+                Log.w(TAG, "Ignoring busy_poll: only available in debug builds.");
+            }
+        }
+    }
+
+    private boolean isDebuggable() {
+        return (getApplicationInfo().flags & ApplicationInfo.FLAG_DEBUGGABLE) != 0;
+    }
+
     @Override
     public void onRequestPermissionsResult(int requestCode, String[] permissions, int[] grantResults) {
         super.onRequestPermissionsResult(requestCode, permissions, grantResults);
@@ -0,0 +1,136 @@
+package com.netham45.android_scream_receiver;
+
+import java.util.function.LongSupplier;
+
+// Decides when the multicast socket has to be torn down and rebuilt, and on which interface
+// the group should be re-joined. Fed by a NetworkMonitor and by the receive loop; the time from
+// a disruption (network change/loss or receive error) to the first packet received afterwards
+// is recorded as the recovery time.
+final class MulticastRecoveryController implements NetworkMonitor.Listener {
+
+    private final Runnable onRebuildRequested;
+    private final LongSupplier clock;
+
+    private volatile boolean rebuildRequested = false;
+    private volatile boolean receiveFailed = false; // The pending rebuild is due to a socket error
+    private volatile String interfaceName = null;
+    private volatile long disruptedAtNanos = 0; // 0 when not recovering
+    private boolean seenNetwork = false;
+    private boolean networkLost = false;
+
+    // Recovery statistics
+    private long recoveries = 0;
+    private long lastRecoveryNanos = 0;
+    private long maxRecoveryNanos = 0;
+
+    // onRebuildRequested is run on the notifying thread and should unblock the receive loop
+    // (e.g. by closing the socket); it may be null
+    MulticastRecoveryController(Runnable onRebuildRequested) {
+        this(onRebuildRequested, System::nanoTime);
+    }
+
+    // clock supplies nanoTime-style timestamps; tests pass a fake one
+    MulticastRecoveryController(Runnable onRebuildRequested, LongSupplier clock) {
+        this.onRebuildRequested = onRebuildRequested;
+        this.clock = clock;
+    }
+
+    @Override
+    public void onNetworkChanged(String newInterfaceName) {
+        synchronized (this) {
+            boolean first = !seenNetwork;
+            seenNetwork = true;
+            interfaceName = newInterfaceName;
+            if (first && !networkLost) {
+                return; // Initial report of the network the socket was opened on
+            }
+            networkLost = false;
+            receiveFailed = false; // The new network gets a fresh socket straight away
+            markDisrupted();
+        }
+        requestRebuild();
+    }
+
+    @Override
+    public synchronized void onNetworkLost() {
+        seenNetwork = true;
+        networkLost = true;
+        markDisrupted(); // The socket is rebuilt once a network is available again
+    }
+
+    // Called by the receive loop when the socket fails
+    void onReceiveError() {
+        synchronized (this) {
+            receiveFailed = true;
+            markDisrupted();
+        }
+        requestRebuild();
+    }
+
+    boolean shouldRebuild() {
+        return rebuildRequested;
+    }
+
+    // True if the socket is being rebuilt because it failed rather than because the network
+    // changed. Only then should the caller wait before reopening, so a broken socket doesn't
+    // spin; rebuilds for a network change (often several in a row while roaming) go at once.
+    boolean shouldBackOff() {
+        return receiveFailed;
+    }
+
+    // Interface to join the group on, or null for the system default
+    String getInterfaceName() {
+        return interfaceName;
+    }
+
+    // Called by the network thread right before it opens a new socket; requests arriving
+    // after this point apply to the new socket
+    void onRebuildStarted() {
+        rebuildRequested = false;
+        receiveFailed = false;
+    }
+
+    // Called by the receive loop for every packet; cheap unless a recovery is in progress.
+    // Returns the recovery time in nanoseconds if this packet ended one, otherwise -1.
+    long onPacketReceived(long nowNanos) {
+        if (disruptedAtNanos == 0) {
+            return -1;
+        }
+        synchronized (this) {
+            if (disruptedAtNanos == 0 || rebuildRequested || networkLost) {
+                return -1; // Packet from the old socket, or still waiting for a network
+            }
+            long recovery = nowNanos - disruptedAtNanos;
+            disruptedAtNanos = 0;
+            recoveries++;
+            lastRecoveryNanos = recovery;
+            maxRecoveryNanos = Math.max(maxRecoveryNanos, recovery);
+            return recovery;
+        }
+    }
+
+    synchronized long getRecoveries() {
+        return recoveries;
+    }
+
+    synchronized long getLastRecoveryNanos() {
+        return lastRecoveryNanos;
+    }
+
+    synchronized long getMaxRecoveryNanos() {
+        return maxRecoveryNanos;
+    }
+
+    private void markDisrupted() {
+        if (disruptedAtNanos == 0) {
+            disruptedAtNanos = clock.getAsLong(); // Keep the earliest disruption until recovered
+        }
+    }
+
+    private void requestRebuild() {
+        rebuildRequested = true;
+        if (onRebuildRequested != null) {
+            onRebuildRequested.run();
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package com.netham45.android_scream_receiver;
+
+import java.net.InetAddress;
+import java.util.Set;
+
+// Source of network change events for the receiver. The Android implementation wraps
+// ConnectivityManager; tests can drive MulticastRecoveryController with a fake one.
+interface NetworkMonitor {
+
+    interface Listener {
+        // A (new) default network is usable. interfaceName may be null if it isn't known.
+        void onNetworkChanged(String interfaceName);
+
+        // The default network went away
+        void onNetworkLost();
+    }
+
+    // Whether a link property update of the current network needs the socket rebuilt: only if the
+    // interface changed or its IPv4 addresses did (e.g. DHCP finished after the network came up).
+    // The group is joined per interface, so changes to anything else don't matter.
+    static boolean linkChanged(String oldInterface, Set<InetAddress> oldIpv4Addresses,
+                               String newInterface, Set<InetAddress> newIpv4Addresses) {
+        boolean sameInterface = oldInterface == null ? newInterface == null : oldInterface.equals(newInterface);
+        return !sameInterface || !oldIpv4Addresses.equals(newIpv4Addresses);
+    }
+
+    void start(Listener listener);
+
+    void stop();
+}
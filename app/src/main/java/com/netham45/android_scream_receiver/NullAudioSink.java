@@ -0,0 +1,75 @@
+package com.netham45.android_scream_receiver;
+
+// AudioSink that accepts and discards everything, counting what it was given.
+// Used to measure routing and buffering cost without an audio device.
+final class NullAudioSink implements AudioSink {
+
+    private final String name;
+    private int frameBytes = 0;
+    private long writeCalls = 0;
+    private long bytesWritten = 0;
+    private long framesWritten = 0;
+    private volatile boolean paused = false; // May be set from a different thread than write()
+
+    NullAudioSink(String name) {
+        this.name = name;
+    }
+
+    @Override
+    public boolean configure(int sampleRate, int channels, int encoding, int bytesPerSample) {
+        frameBytes = channels * bytesPerSample;
+        return frameBytes > 0;
+    }
+
+    @Override
+    public void write(byte[] data, int offset, int length) {
+        if (paused) {
+            return;
+        }
+        writeCalls++;
+        bytesWritten += length;
+        framesWritten += frameBytes > 0 ? length / frameBytes : 0;
+    }
+
+    @Override
+    public void drain() {
+    }
+
+    @Override
+    public void pause() {
+        paused = true;
+    }
+
+    @Override
+    public void resume() {
+        paused = false;
+    }
+
+    @Override
+    public void release() {
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public long getWriteCalls() {
+        return writeCalls;
+    }
+
+    @Override
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    @Override
+    public long getBytesDropped() {
+        return 0;
+    }
+
+    long getFramesWritten() {
+        return framesWritten;
+    }
+}
@@ -0,0 +1,128 @@
+package com.netham45.android_scream_receiver;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+// Bounded ring of preallocated packet slots handing datagrams from the receive thread to the
+// render thread. offer() copies the packet and stamps it with the publish time so the consumer
+// can measure its own wakeup latency. The consumer either parks (woken by the producer only
+// when it is actually waiting) or busy-polls for the lowest latency.
+final class PacketHandoffQueue {
+
+    private static final int SPIN_YIELD_INTERVAL = 256; // Spins between yields in busy-poll mode
+
+    private final int slotCount;
+    private final int slotMask;
+    private final int slotSize;
+    private final byte[] slots;
+    private final int[] lengths;
+    private final long[] publishNanos;
+
+    private final AtomicLong writeSequence = new AtomicLong();
+    private final AtomicLong readSequence = new AtomicLong();
+    private volatile boolean consumerWaiting = false;
+    private volatile Thread consumerThread;
+
+    private long droppedPackets = 0;
+
+    // slotCount must be a power of two; packets longer than slotSize are truncated
+    PacketHandoffQueue(int slotCount, int slotSize) {
+        if (slotCount <= 0 || Integer.bitCount(slotCount) != 1) {
+            throw new IllegalArgumentException("slotCount must be a power of two: " + slotCount);
+        }
+        this.slotCount = slotCount;
+        this.slotMask = slotCount - 1;
+        this.slotSize = slotSize;
+        this.slots = new byte[slotCount * slotSize];
+        this.lengths = new int[slotCount];
+        this.publishNanos = new long[slotCount];
+    }
+
+    // Copies a packet into the next free slot. Returns false (and counts a drop) if the consumer
+    // is too far behind. Producers are serialized so live packets and trace replay can share it.
+    synchronized boolean offer(byte[] data, int offset, int length) {
+        long seq = writeSequence.get();
+        if (seq - readSequence.get() >= slotCount) {
+            droppedPackets++;
+            return false;
+        }
+        int slot = (int) (seq & slotMask);
+        int len = Math.min(length, slotSize);
+        System.arraycopy(data, offset, slots, slot * slotSize, len);
+        lengths[slot] = len;
+        publishNanos[slot] = System.nanoTime();
+        writeSequence.set(seq + 1);
+        if (consumerWaiting) {
+            LockSupport.unpark(consumerThread);
+        }
+        return true;
+    }
+
+    // Waits up to timeoutNanos for a packet and returns its slot, or -1 on timeout.
+    // The slot stays valid until release() is called. Consumer thread only.
+    int take(long timeoutNanos, boolean busyPoll) {
+        int slot = peek();
+        if (slot >= 0) {
+            return slot;
+        }
+        long deadline = System.nanoTime() + timeoutNanos;
+        consumerThread = Thread.currentThread();
+        int spins = 0;
+        while (true) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return -1;
+            }
+            if (busyPoll) {
+                if (++spins % SPIN_YIELD_INTERVAL == 0) {
+                    Thread.yield();
+                }
+            } else {
+                consumerWaiting = true;
+                if (peek() < 0) { // Re-check after announcing we're waiting so no wakeup is lost
+                    LockSupport.parkNanos(this, remaining);
+                }
+                consumerWaiting = false;
+            }
+            slot = peek();
+            if (slot >= 0) {
+                return slot;
+            }
+        }
+    }
+
+    boolean isFull() {
+        return writeSequence.get() - readSequence.get() >= slotCount;
+    }
+
+    // Slot of the oldest unconsumed packet, or -1 if empty
+    int peek() {
+        long read = readSequence.get();
+        return read < writeSequence.get() ? (int) (read & slotMask) : -1;
+    }
+
+    // Hands the oldest slot back to the producer
+    void release() {
+        readSequence.set(readSequence.get() + 1);
+    }
+
+    byte[] getBuffer() {
+        return slots;
+    }
+
+    int offsetOf(int slot) {
+        return slot * slotSize;
+    }
+
+    int lengthOf(int slot) {
+        return lengths[slot];
+    }
+
+    long publishNanosOf(int slot) {
+        return publishNanos[slot];
+    }
+
+    synchronized long getDroppedPackets() {
+        return droppedPackets;
+    }
+}
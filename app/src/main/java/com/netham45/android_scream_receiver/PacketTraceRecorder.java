@@ -0,0 +1,200 @@
+package com.netham45.android_scream_receiver;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+// Captures raw Scream datagrams into a compact binary trace file.
+// The network thread copies each packet into a preallocated ring (no allocation, never blocks);
+// a background thread drains the ring and writes it out through a FileChannel.
+//
+// Trace format (little-endian):
+//   File header: "SCRT" magic, int16 version, int16 reserved
+//   Record:      int64 arrival nanos, uint8 address length (4 or 16), address bytes,
+//                uint16 source port, uint16 payload length, payload bytes
+final class PacketTraceRecorder {
+
+    static final int MAGIC = 0x54524353; // "SCRT" read as a little-endian int
+    static final short VERSION = 1;
+    static final int FILE_HEADER_SIZE = 8;
+    static final int MAX_PACKET_SIZE = 4096; // Matches the receive buffer in AudioService
+    static final int MAX_RECORD_SIZE = 8 + 1 + 16 + 2 + 2 + MAX_PACKET_SIZE;
+
+    private static final long WRITER_IDLE_PARK_NANOS = 2_000_000; // 2 ms between polls when idle
+
+    private final int slotCount;
+    private final int slotMask;
+    private final byte[] payloads;
+    private final int[] payloadLengths;
+    private final long[] arrivalNanos;
+    private final byte[] addresses;
+    private final int[] addressLengths;
+    private final int[] ports;
+
+    // Single producer (network thread), single consumer (writer thread)
+    private final AtomicLong writeSequence = new AtomicLong();
+    private final AtomicLong readSequence = new AtomicLong();
+
+    private final File file;
+    private final FileChannel channel;
+    private final ByteBuffer writeBuffer;
+    private final Thread writerThread;
+    private volatile boolean running = true;
+    private volatile IOException writeError;
+
+    // Written only by the network thread, read by the main thread when capture stops
+    private volatile long recordedPackets = 0;
+    private volatile long droppedPackets = 0;
+
+    // Last source seen and its address bytes. InetAddress.getAddress() returns a fresh copy,
+    // so it is only called when the sender changes.
+    private InetAddress lastSource = null;
+    private final byte[] lastSourceAddress = new byte[16];
+    private int lastSourceAddressLength = 0;
+
+    // slotCount must be a power of two
+    PacketTraceRecorder(File file, int slotCount) throws IOException {
+        if (slotCount <= 0 || Integer.bitCount(slotCount) != 1) {
+            throw new IllegalArgumentException("slotCount must be a power of two: " + slotCount);
+        }
+        this.slotCount = slotCount;
+        this.slotMask = slotCount - 1;
+        this.payloads = new byte[slotCount * MAX_PACKET_SIZE];
+        this.payloadLengths = new int[slotCount];
+        this.arrivalNanos = new long[slotCount];
+        this.addresses = new byte[slotCount * 16];
+        this.addressLengths = new int[slotCount];
+        this.ports = new int[slotCount];
+
+        this.file = file;
+        this.channel = new RandomAccessFile(file, "rw").getChannel();
+        this.channel.truncate(0);
+        this.writeBuffer = ByteBuffer.allocateDirect(Math.max(64 * 1024, MAX_RECORD_SIZE * 4)).order(ByteOrder.LITTLE_ENDIAN);
+        writeBuffer.putInt(MAGIC).putShort(VERSION).putShort((short) 0);
+
+        writerThread = new Thread(this::writerLoop, "ScreamTraceWriter");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    File getFile() {
+        return file;
+    }
+
+    // Called from the network thread. Returns false if the ring was full and the packet was dropped.
+    boolean record(byte[] data, int offset, int length, InetAddress source, int sourcePort, long nanos) {
+        long seq = writeSequence.get();
+        if (seq - readSequence.get() >= slotCount) {
+            droppedPackets++;
+            return false;
+        }
+        int slot = (int) (seq & slotMask);
+        int len = Math.min(length, MAX_PACKET_SIZE);
+        System.arraycopy(data, offset, payloads, slot * MAX_PACKET_SIZE, len);
+        payloadLengths[slot] = len;
+        arrivalNanos[slot] = nanos;
+        if (source != null) {
+            if (source != lastSource && !source.equals(lastSource)) {
+                byte[] address = source.getAddress();
+                System.arraycopy(address, 0, lastSourceAddress, 0, address.length);
+                lastSourceAddressLength = address.length;
+            }
+            lastSource = source;
+            System.arraycopy(lastSourceAddress, 0, addresses, slot * 16, lastSourceAddressLength);
+            addressLengths[slot] = lastSourceAddressLength;
+        } else {
+            addressLengths[slot] = 0;
+        }
+        ports[slot] = sourcePort;
+        writeSequence.lazySet(seq + 1); // Publish the slot to the writer
+        recordedPackets++;
+        return true;
+    }
+
+    long getRecordedPackets() {
+        return recordedPackets;
+    }
+
+    long getDroppedPackets() {
+        return droppedPackets;
+    }
+
+    // Non-null if the writer thread failed; recording stops at that point
+    IOException getWriteError() {
+        return writeError;
+    }
+
+    // Stops the writer, flushing anything still queued, and closes the file
+    void close() {
+        running = false;
+        LockSupport.unpark(writerThread);
+        try {
+            writerThread.join(2000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void writerLoop() {
+        try {
+            while (true) {
+                boolean stopping = !running; // Read before draining so the final drain sees every published slot
+                long read = readSequence.get();
+                long available = writeSequence.get();
+                if (read == available) {
+                    flushBuffer();
+                    if (stopping) {
+                        break;
+                    }
+                    LockSupport.parkNanos(WRITER_IDLE_PARK_NANOS);
+                    continue;
+                }
+                while (read < available) {
+                    if (writeBuffer.remaining() < MAX_RECORD_SIZE) {
+                        flushBuffer();
+                    }
+                    encodeSlot((int) (read & slotMask));
+                    read++;
+                    readSequence.lazySet(read); // Hand the slot back to the producer
+                }
+            }
+            channel.force(false);
+        } catch (IOException e) {
+            writeError = e;
+            running = false;
+        } finally {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                if (writeError == null) {
+                    writeError = e;
+                }
+            }
+        }
+    }
+
+    private void encodeSlot(int slot) {
+        int addressLength = addressLengths[slot];
+        int len = payloadLengths[slot];
+        writeBuffer.putLong(arrivalNanos[slot]);
+        writeBuffer.put((byte) addressLength);
+        writeBuffer.put(addresses, slot * 16, addressLength);
+        writeBuffer.putShort((short) ports[slot]);
+        writeBuffer.putShort((short) len);
+        writeBuffer.put(payloads, slot * MAX_PACKET_SIZE, len);
+    }
+
+    private void flushBuffer() throws IOException {
+        writeBuffer.flip();
+        while (writeBuffer.hasRemaining()) {
+            channel.write(writeBuffer);
+        }
+        writeBuffer.clear();
+    }
+}
@@ -0,0 +1,152 @@
+package com.netham45.android_scream_receiver;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.locks.LockSupport;
+
+// Replays a trace written by PacketTraceRecorder through a PacketConsumer.
+// In real-time mode packets are delivered with their original inter-arrival timing;
+// otherwise they are delivered as fast as the consumer can take them, which makes
+// replays deterministic and usable for regression runs and benchmarks.
+final class PacketTraceReplayer {
+
+    // Receives replayed packets; arrivalNanos is the original capture timestamp
+    interface PacketConsumer {
+        void onPacket(byte[] data, int offset, int length, InetAddress source, int sourcePort, long arrivalNanos);
+    }
+
+    private static final long SPIN_THRESHOLD_NANOS = 200_000; // Spin instead of parking for the last 0.2 ms
+
+    private final File file;
+    private final boolean realTime;
+    private volatile boolean cancelled = false;
+
+    PacketTraceReplayer(File file, boolean realTime) {
+        this.file = file;
+        this.realTime = realTime;
+    }
+
+    void cancel() {
+        cancelled = true;
+    }
+
+    // Replays the whole trace on the calling thread and returns the number of packets delivered
+    long replay(PacketConsumer consumer) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+            ByteBuffer buffer = ByteBuffer.allocate(256 * 1024).order(ByteOrder.LITTLE_ENDIAN);
+            byte[] payload = new byte[PacketTraceRecorder.MAX_PACKET_SIZE];
+            byte[] address4 = new byte[4];
+            byte[] address16 = new byte[16];
+            InetAddress lastSource = null;
+
+            buffer.limit(0);
+            if (!fill(channel, buffer, PacketTraceRecorder.FILE_HEADER_SIZE)) {
+                throw new IOException("Trace file too short: " + file);
+            }
+            int magic = buffer.getInt();
+            short version = buffer.getShort();
+            buffer.getShort(); // Reserved
+            if (magic != PacketTraceRecorder.MAGIC || version != PacketTraceRecorder.VERSION) {
+                throw new IOException("Not a Scream trace file (magic " + Integer.toHexString(magic) + ", version " + version + ")");
+            }
+
+            long delivered = 0;
+            long firstArrival = 0;
+            long replayStart = 0;
+            while (!cancelled) {
+                if (!fill(channel, buffer, 9)) {
+                    break; // Clean end of trace
+                }
+                long arrivalNanos = buffer.getLong();
+                int addressLength = buffer.get() & 0xFF;
+                if (!fill(channel, buffer, addressLength + 4)) {
+                    throw new IOException("Truncated record in trace " + file);
+                }
+                InetAddress source = null;
+                if (addressLength == 4 || addressLength == 16) {
+                    byte[] address = addressLength == 4 ? address4 : address16;
+                    buffer.get(address);
+                    source = sameAddress(lastSource, address) ? lastSource : toInetAddress(address);
+                    lastSource = source;
+                } else if (addressLength != 0) {
+                    throw new IOException("Bad address length " + addressLength + " in trace " + file);
+                }
+                int sourcePort = buffer.getShort() & 0xFFFF;
+                int length = buffer.getShort() & 0xFFFF;
+                if (length > payload.length || !fill(channel, buffer, length)) {
+                    throw new IOException("Truncated or oversized record in trace " + file);
+                }
+                buffer.get(payload, 0, length);
+
+                if (realTime) {
+                    if (delivered == 0) {
+                        firstArrival = arrivalNanos;
+                        replayStart = System.nanoTime();
+                    } else {
+                        waitUntil(replayStart + (arrivalNanos - firstArrival));
+                    }
+                }
+                consumer.onPacket(payload, 0, length, source, sourcePort, arrivalNanos);
+                delivered++;
+            }
+            return delivered;
+        }
+    }
+
+    // Ensures at least `needed` bytes are readable; returns false on end of file
+    private static boolean fill(FileChannel channel, ByteBuffer buffer, int needed) throws IOException {
+        if (buffer.remaining() >= needed) {
+            return true;
+        }
+        buffer.compact();
+        while (buffer.position() < needed) {
+            if (channel.read(buffer) < 0) {
+                buffer.flip();
+                return buffer.remaining() >= needed;
+            }
+        }
+        buffer.flip();
+        return true;
+    }
+
+    private static boolean sameAddress(InetAddress last, byte[] address) {
+        if (last == null) {
+            return false;
+        }
+        byte[] lastBytes = last.getAddress();
+        if (lastBytes.length != address.length) {
+            return false;
+        }
+        for (int i = 0; i < address.length; i++) {
+            if (lastBytes[i] != address[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static InetAddress toInetAddress(byte[] address) throws IOException {
+        try {
+            return InetAddress.getByAddress(address.clone());
+        } catch (UnknownHostException e) {
+            throw new IOException("Bad address in trace: " + e.getMessage(), e);
+        }
+    }
+
+    private void waitUntil(long deadlineNanos) {
+        long remaining;
+        while (!cancelled && (remaining = deadlineNanos - System.nanoTime()) > 0) {
+            if (remaining > SPIN_THRESHOLD_NANOS) {
+                LockSupport.parkNanos(remaining - SPIN_THRESHOLD_NANOS);
+            } else {
+                Thread.yield();
+            }
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package com.netham45.android_scream_receiver;
+
+// Streaming rational-ratio resampler for interleaved 16-bit little-endian PCM.
+// Uses a Kaiser-windowed sinc prototype split into L polyphase branches (output/input = L/M),
+// so each output sample costs a fixed number of multiply-adds per channel regardless of ratio
+// direction. Quality/CPU profile is fixed: flat (< 0.05 dB) to 86% of the lower Nyquist
+// frequency, -6 dB at CUTOFF (93%), >= 70 dB rejection from the lower Nyquist frequency up,
+// and ~86-91 dB SNR for in-band 16-bit tones (PolyphaseResamplerTest). TAPS_PER_PHASE taps
+// per output sample, scaled up when decimating.
+final class PolyphaseResampler {
+
+    static final int TAPS_PER_PHASE = 64;
+    static final int MAX_PHASES = 1024; // Largest L we build tables for (44.1k <-> 48k needs 160)
+
+    private static final double CUTOFF = 0.93; // Filter centre as a fraction of the lower Nyquist frequency
+    private static final double KAISER_BETA = 7.0;
+    private static final int BLOCK_FRAMES = 2048; // Input frames converted per internal block
+
+    private final int inputRate;
+    private final int outputRate;
+    private final int channels;
+    private final int upFactor; // L
+    private final int downFactor; // M
+    private final int taps; // Taps per phase
+    private final float[] coefficients; // Phase-major, each phase reversed so it lines up with ascending input
+
+    // Per-channel planar history + current block; frames [0, filled) are valid
+    private final float[][] history;
+    private int filled;
+    private int position; // Frame index of the newest input sample for the next output
+    private int phase;
+
+    PolyphaseResampler(int inputRate, int outputRate, int channels) {
+        if (!isSupported(inputRate, outputRate) || channels <= 0) {
+            throw new IllegalArgumentException("Unsupported resampling " + inputRate + " -> " + outputRate + " Hz, " + channels + " channels");
+        }
+        int gcd = gcd(inputRate, outputRate);
+        this.inputRate = inputRate;
+        this.outputRate = outputRate;
+        this.channels = channels;
+        this.upFactor = outputRate / gcd;
+        this.downFactor = inputRate / gcd;
+        this.taps = TAPS_PER_PHASE * Math.max(1, (downFactor + upFactor - 1) / upFactor);
+        this.coefficients = designFilter(upFactor, downFactor, taps);
+        this.history = new float[channels][taps - 1 + BLOCK_FRAMES];
+        reset();
+    }
+
+    static boolean isSupported(int inputRate, int outputRate) {
+        return inputRate > 0 && outputRate > 0 && outputRate / gcd(inputRate, outputRate) <= MAX_PHASES;
+    }
+
+    int getInputRate() {
+        return inputRate;
+    }
+
+    int getOutputRate() {
+        return outputRate;
+    }
+
+    // Clears filter history, e.g. after a gap in the stream
+    void reset() {
+        for (float[] channel : history) {
+            java.util.Arrays.fill(channel, 0f);
+        }
+        filled = taps - 1;
+        position = taps - 1;
+        phase = 0;
+    }
+
+    // Upper bound on output bytes produced for inputBytes of input
+    int maxOutputBytes(int inputBytes) {
+        long inputFrames = inputBytes / (2L * channels);
+        long outputFrames = (inputFrames * upFactor + downFactor - 1) / downFactor + 1;
+        return (int) (outputFrames * 2 * channels);
+    }
+
+    // Resamples a block of interleaved 16-bit PCM. out must have room for maxOutputBytes(length).
+    // Returns the number of bytes written to out.
+    int process(byte[] in, int offset, int length, byte[] out, int outOffset) {
+        int frameBytes = 2 * channels;
+        int frames = length / frameBytes;
+        int outPos = outOffset;
+        while (frames > 0) {
+            int block = Math.min(frames, history[0].length - filled);
+            deinterleave(in, offset, block);
+            offset += block * frameBytes;
+            frames -= block;
+            outPos = produce(out, outPos);
+            discardConsumed();
+        }
+        return outPos - outOffset;
+    }
+
+    private void deinterleave(byte[] in, int offset, int frames) {
+        for (int ch = 0; ch < channels; ch++) {
+            float[] dst = history[ch];
+            int src = offset + ch * 2;
+            int step = channels * 2;
+            for (int i = 0; i < frames; i++, src += step) {
+                dst[filled + i] = (short) ((in[src] & 0xFF) | (in[src + 1] << 8));
+            }
+        }
+        filled += frames;
+    }
+
+    private int produce(byte[] out, int outPos) {
+        while (position < filled) {
+            int coeffBase = phase * taps;
+            int start = position - taps + 1;
+            for (int ch = 0; ch < channels; ch++) {
+                float[] x = history[ch];
+                float acc = 0f;
+                for (int k = 0; k < taps; k++) {
+                    acc += coefficients[coeffBase + k] * x[start + k];
+                }
+                int sample = Math.round(acc);
+                if (sample > Short.MAX_VALUE) {
+                    sample = Short.MAX_VALUE;
+                } else if (sample < Short.MIN_VALUE) {
+                    sample = Short.MIN_VALUE;
+                }
+                out[outPos++] = (byte) sample;
+                out[outPos++] = (byte) (sample >> 8);
+            }
+            phase += downFactor;
+            position += phase / upFactor;
+            phase %= upFactor;
+        }
+        return outPos;
+    }
+
+    // Keeps only the taps - 1 frames the next output still needs
+    private void discardConsumed() {
+        int shift = position - (taps - 1);
+        if (shift <= 0) {
+            return;
+        }
+        int keep = filled - shift;
+        for (float[] channel : history) {
+            System.arraycopy(channel, shift, channel, 0, keep);
+        }
+        filled = keep;
+        position -= shift;
+    }
+
+    private static float[] designFilter(int up, int down, int taps) {
+        int length = up * taps;
+        double cutoff = CUTOFF * 0.5 / Math.max(up, down); // Cycles per sample at the upsampled rate
+        double centre = (length - 1) / 2.0;
+        double besselBeta = besselI0(KAISER_BETA);
+        double[] prototype = new double[length];
+        for (int n = 0; n < length; n++) {
+            double t = n - centre;
+            double sinc = t == 0 ? 2 * cutoff : Math.sin(2 * Math.PI * cutoff * t) / (Math.PI * t);
+            double ratio = 2.0 * n / (length - 1) - 1.0;
+            double window = besselI0(KAISER_BETA * Math.sqrt(Math.max(0, 1 - ratio * ratio))) / besselBeta;
+            prototype[n] = sinc * window * up; // Gain of L compensates for zero-stuffing
+        }
+        // Normalise each phase to unity DC gain so there's no ripple from phase to phase
+        float[] coefficients = new float[length];
+        for (int p = 0; p < up; p++) {
+            double sum = 0;
+            for (int k = 0; k < taps; k++) {
+                sum += prototype[p + k * up];
+            }
+            for (int k = 0; k < taps; k++) {
+                coefficients[p * taps + (taps - 1 - k)] = (float) (prototype[p + k * up] / sum);
+            }
+        }
+        return coefficients;
+    }
+
+    private static double besselI0(double x) {
+        double sum = 1.0;
+        double term = 1.0;
+        double half = x / 2.0;
+        for (int k = 1; k < 50; k++) {
+            term *= (half / k) * (half / k);
+            sum += term;
+            if (term < 1e-12 * sum) {
+                break;
+            }
+        }
+        return sum;
+    }
+
+    private static int gcd(int a, int b) {
+        while (b != 0) {
+            int t = a % b;
+            a = b;
+            b = t;
+        }
+        return a;
+    }
+}
@@ -0,0 +1,93 @@
+package com.netham45.android_scream_receiver;
+
+// Picks an SO_RCVBUF size from observed kernel queue depth, kernel drops and packet bursts.
+// Samples are collected into windows; at the end of each window the buffer grows right away
+// if the queue came close to the limit or anything was dropped, and shrinks only after
+// several consecutive quiet windows so it doesn't oscillate. Without kernel counters there
+// is no drop signal to grow back on, so the caller can ask for growth only.
+final class ReceiveBufferTuner {
+
+    private static final int HEADROOM_FACTOR = 2; // Keep the buffer at least this many times the peak queue
+    private static final int BURST_FACTOR = 4; // Covers per-skb kernel overhead (~2x payload) with 2x headroom
+    private static final int SHRINK_QUIET_WINDOWS = 5; // Consecutive low-usage windows before shrinking
+
+    private final int minBytes;
+    private final int maxBytes;
+    private final int initialBytes;
+    private volatile int currentBytes; // Also read when a new socket is opened
+
+    // Current window
+    private long peakQueueBytes = 0;
+    private long peakBurstBytes = 0;
+    private long windowDrops = 0;
+    private int quietWindows = 0;
+
+    ReceiveBufferTuner(int minBytes, int maxBytes, int initialBytes) {
+        this.minBytes = minBytes;
+        this.maxBytes = maxBytes;
+        this.initialBytes = clamp(initialBytes);
+        this.currentBytes = this.initialBytes;
+    }
+
+    // Records one kernel queue sample and the drops seen since the previous sample
+    void onQueueSample(long rxQueueBytes, long newDrops) {
+        peakQueueBytes = Math.max(peakQueueBytes, rxQueueBytes);
+        windowDrops += Math.max(0, newDrops);
+    }
+
+    // Records the size of a burst of back-to-back packets seen by the app
+    void onBurst(long burstBytes) {
+        peakBurstBytes = Math.max(peakBurstBytes, burstBytes);
+    }
+
+    // Closes the current window and returns the buffer size to use from now on
+    int endWindow() {
+        return endWindow(true);
+    }
+
+    // As endWindow(), but with mayShrink false the buffer never shrinks (and never goes below the
+    // initial size). Used when only bursts are known: steady 6 ms packets look quiet, and with no
+    // drop counter a shrunken buffer would only grow back after audio had already been lost.
+    int endWindow(boolean mayShrink) {
+        long target = Math.max(peakQueueBytes * HEADROOM_FACTOR, peakBurstBytes * BURST_FACTOR);
+        if (windowDrops > 0) {
+            // The kernel dropped datagrams: grow aggressively
+            currentBytes = clamp(Math.max((long) currentBytes * 2, target));
+            quietWindows = 0;
+        } else if (target > currentBytes) {
+            currentBytes = clamp(target);
+            quietWindows = 0;
+        } else if (!mayShrink) {
+            currentBytes = Math.max(currentBytes, initialBytes);
+            quietWindows = 0;
+        } else if (target < currentBytes / 4) {
+            if (++quietWindows >= SHRINK_QUIET_WINDOWS) {
+                currentBytes = clamp(Math.max(currentBytes / 2, target));
+                quietWindows = 0;
+            }
+        } else {
+            quietWindows = 0;
+        }
+        peakQueueBytes = 0;
+        peakBurstBytes = 0;
+        windowDrops = 0;
+        return currentBytes;
+    }
+
+    int getCurrentBytes() {
+        return currentBytes;
+    }
+
+    // Peak values of the window in progress, for metrics
+    long getPeakQueueBytes() {
+        return peakQueueBytes;
+    }
+
+    long getPeakBurstBytes() {
+        return peakBurstBytes;
+    }
+
+    private int clamp(long bytes) {
+        return (int) Math.max(minBytes, Math.min(maxBytes, bytes));
+    }
+}
@@ -0,0 +1,237 @@
+package com.netham45.android_scream_receiver;
+
+import android.media.AudioFormat;
+
+// The receiver's packet pipeline between the handoff queue and the output sinks: Scream header
+// parsing, digital-silence detection, sleep/wake decisions, format-change handling and channel
+// routing. It has no Android dependencies (AudioFormat constants are compile-time inlined), and
+// time is passed in, so recorded traces can be replayed through it on the JVM. Render thread
+// only, except isSleeping() and requestWake().
+final class ScreamReceiverCore {
+
+    static final int HEADER_SIZE = 5;
+
+    // Events the service turns into logs, notifications and wake lock changes. Called on the
+    // render thread, so anything slow (Binder calls) should be handed to another thread.
+    interface Listener {
+        // No non-silent audio for the inactivity timeout; the sinks have been paused
+        void onSleep();
+
+        // Non-silent audio arrived (or a wake was requested) while sleeping
+        void onWake();
+
+        // The stream format changed; activeRoutes is 0 if no sink accepted it
+        void onFormatChanged(int sampleRate, int channels, int bitDepth, int activeRoutes, int routeCount);
+
+        // A packet was dropped because it can't be played
+        void onPacketRejected(String reason);
+    }
+
+    private final Listener listener;
+    private final long inactivityTimeoutNanos;
+    private final SilenceDetector silenceDetector = new SilenceDetector();
+    private ChannelRouter router;
+    private volatile boolean sleeping = false; // Read by the receive thread to pick its timeout
+    private volatile boolean wakeRequested = false;
+    private boolean sinksPaused = false;
+    private boolean clockStarted = false;
+    private long lastAudioNanos = 0; // When the last non-silent packet arrived
+
+    // Current stream format; currentSampleRate is 0 until the sinks are configured
+    private int currentSampleRate = 0;
+    private int currentChannels = 0;
+    private int currentEncoding = 0;
+    private int currentFrameSize = 0;
+
+    private long packetsPlayed = 0;
+    private long audioNanosPlayed = 0; // Stream time routed to the sinks
+
+    ScreamReceiverCore(ChannelRouter router, long inactivityTimeoutNanos, Listener listener) {
+        this.router = router;
+        this.inactivityTimeoutNanos = inactivityTimeoutNanos;
+        this.listener = listener;
+    }
+
+    // Swaps in a new router; its sinks are configured with the next packet
+    void setRouter(ChannelRouter router) {
+        this.router = router;
+        currentSampleRate = 0;
+        sinksPaused = false; // Paused again by syncSleepState() if we're still sleeping
+    }
+
+    boolean isSleeping() {
+        return sleeping;
+    }
+
+    // Wakes up on the render thread's next loop iteration, e.g. after a media Play command.
+    // May be called from any thread.
+    void requestWake() {
+        wakeRequested = true;
+    }
+
+    // Goes to sleep once no non-silent audio has arrived for the inactivity timeout, and handles
+    // wake requests. Called by the render thread on every loop iteration; a timestamp compare
+    // instead of a timer that has to be re-armed for every packet.
+    void checkInactivity(long nowNanos) {
+        startClock(nowNanos);
+        if (wakeRequested) {
+            wakeRequested = false;
+            lastAudioNanos = nowNanos;
+            if (sleeping) {
+                sleeping = false;
+                listener.onWake();
+            }
+        } else if (!sleeping && nowNanos - lastAudioNanos >= inactivityTimeoutNanos) {
+            sleeping = true;
+            listener.onSleep();
+        }
+        syncSleepState();
+    }
+
+    // Whether the render loop should busy-poll for the next packet. Never while sleeping: the
+    // loop then waits a full sleep timeout at a time with the wake locks released, and must park.
+    boolean shouldBusyPoll(boolean busyPollEnabled) {
+        return busyPollEnabled && !sleeping;
+    }
+
+    ChannelRouter getRouter() {
+        return router;
+    }
+
+    // Handles one raw Scream datagram, either received live or replayed from a trace.
+    // nowNanos is its arrival time, which drives the inactivity timeout.
+    void process(byte[] data, int offset, int length, long nowNanos) {
+        if (length < HEADER_SIZE) {
+            listener.onPacketRejected("Packet too small (" + length + " bytes), expected >= " + HEADER_SIZE + ".");
+            return;
+        }
+
+        // Digital silence counts as inactivity, and once we're sleeping it is dropped
+        boolean silent = silenceDetector.isSilent(data, offset + HEADER_SIZE, length - HEADER_SIZE);
+        if (!silent) {
+            startClock(nowNanos);
+            lastAudioNanos = nowNanos;
+            if (sleeping) {
+                sleeping = false; // Wake up on the first packet with real audio
+                listener.onWake();
+            }
+        }
+        syncSleepState();
+        if (silent && sinksPaused) {
+            return; // Skip writes while the sender is only streaming zeros
+        }
+
+        handleAudioPacket(data, offset, offset + HEADER_SIZE, length - HEADER_SIZE);
+    }
+
+    // Parses the header, configures the sinks if needed, and routes PCM data to them
+    private void handleAudioPacket(byte[] data, int headerOffset, int pcmOffset, int pcmLength) {
+        // Byte 0: Sample Rate
+        int baseRate = ((data[headerOffset] & 0x80) == 0) ? 48000 : 44100; // Bit 7: 0=48k, 1=44.1k
+        int multiplier = (data[headerOffset] & 0x7F); // Bits 0-6
+        int sampleRate = baseRate * (multiplier);
+
+        // Byte 1: Sample Width (Bits) -> AudioFormat Encoding
+        int bitDepth = data[headerOffset + 1] & 0xFF;
+        int encoding = encodingForBitDepth(bitDepth);
+        if (encoding == 0) {
+            listener.onPacketRejected("Unsupported bit depth: " + bitDepth);
+            return;
+        }
+
+        // Byte 2: Number of Channels (each sink maps its share to a channel mask)
+        int numChannels = data[headerOffset + 2] & 0xFF;
+
+        // Bytes 3-4: Channel Mask (DWORD, little-endian)
+        // We use the numChannels mapping in AudioTrackSink for simplicity, but the mask could be used
+        // for more precise mapping if needed (e.g., AudioFormat.Builder.setChannelMask)
+
+        boolean needsReconfig = (currentSampleRate == 0 ||
+                                 sampleRate != currentSampleRate ||
+                                 numChannels != currentChannels ||
+                                 encoding != currentEncoding);
+        if (needsReconfig) {
+            int activeRoutes = sampleRate > 0 && numChannels > 0
+                    ? router.configure(sampleRate, numChannels, encoding, bitDepth / 8) : 0;
+            listener.onFormatChanged(sampleRate, numChannels, bitDepth, activeRoutes, router.getRouteCount());
+            if (activeRoutes == 0) {
+                currentSampleRate = 0;
+                return; // Cannot play if reconfig failed
+            }
+            // Update current parameters only on successful initialization
+            currentSampleRate = sampleRate;
+            currentChannels = numChannels;
+            currentEncoding = encoding;
+            currentFrameSize = numChannels * (bitDepth / 8); // Frame size of the incoming PCM
+        }
+
+        packetsPlayed++;
+        audioNanosPlayed += (long) (pcmLength / currentFrameSize) * 1000000000L / currentSampleRate;
+        router.route(data, pcmOffset, pcmLength);
+    }
+
+    // Scream bit depth -> AudioFormat encoding, or 0 if unsupported
+    static int encodingForBitDepth(int bitDepth) {
+        switch (bitDepth) {
+            case 8:
+                return AudioFormat.ENCODING_PCM_8BIT;
+            case 16:
+                return AudioFormat.ENCODING_PCM_16BIT;
+            case 24: // Android uses ENCODING_PCM_FLOAT for 24/32 bit usually, check AudioTrack support
+            case 32:
+                return AudioFormat.ENCODING_PCM_FLOAT;
+            default:
+                return 0;
+        }
+    }
+
+    // Pushes out any staged partial bursts; called when no packet arrived within the wait timeout
+    void drain() {
+        syncSleepState();
+        if (!sinksPaused) {
+            router.drain();
+        }
+    }
+
+    private void startClock(long nowNanos) {
+        if (!clockStarted) {
+            clockStarted = true;
+            lastAudioNanos = nowNanos; // The timeout runs from the first thing we see
+        }
+    }
+
+    // Pauses the sinks (flushing the track and any staged audio) when we go to sleep and resumes
+    // them on wake. Done here, on the thread that writes, so nothing is written between the flush
+    // and the pause and replayed on wake.
+    private void syncSleepState() {
+        boolean shouldPause = sleeping;
+        if (shouldPause != sinksPaused) {
+            if (shouldPause) {
+                router.pause();
+            } else {
+                router.resume();
+            }
+            sinksPaused = shouldPause;
+        }
+    }
+
+    SilenceDetector getSilenceDetector() {
+        return silenceDetector;
+    }
+
+    int getSampleRate() {
+        return currentSampleRate;
+    }
+
+    int getChannels() {
+        return currentChannels;
+    }
+
+    long getPacketsPlayed() {
+        return packetsPlayed;
+    }
+
+    long getAudioNanosPlayed() {
+        return audioNanosPlayed;
+    }
+}
@@ -0,0 +1,73 @@
+package com.netham45.android_scream_receiver;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+// Detects digital silence (all-zero PCM) in Scream packet payloads.
+// Some senders keep streaming zeros when nothing is playing, so packet arrival alone
+// can't be used to decide whether the receiver is idle.
+final class SilenceDetector {
+
+    private static final int BLOCK_SIZE = 64; // Bytes checked between early exits, as eight longs
+
+    // Counts for the metrics log. The per-packet cost is measured by SilenceDetectorTest rather than
+    // timed inline, since two System.nanoTime() calls cost about as much as the scan itself.
+    private long packetsChecked = 0;
+    private long silentPackets = 0;
+
+    // View of the last array checked. Packets normally come from the handoff queue's single
+    // backing array, so this is created once rather than per packet.
+    private ByteBuffer view = null;
+
+    // Returns true if every byte in the given range is zero
+    static boolean isAllZero(byte[] data, int offset, int length) {
+        return isAllZero(ByteBuffer.wrap(data).order(ByteOrder.nativeOrder()), offset, length);
+    }
+
+    // Reads the range 8 bytes at a time, ORing a 64-byte block before each early-exit check.
+    // About twice as fast as a byte-at-a-time loop on a 1152-byte packet (see SilenceDetectorTest);
+    // byte order doesn't matter for a zero test, native order just avoids byte swaps.
+    private static boolean isAllZero(ByteBuffer buffer, int offset, int length) {
+        int end = offset + length;
+        int i = offset;
+        for (; i + BLOCK_SIZE <= end; i += BLOCK_SIZE) {
+            long acc = buffer.getLong(i) | buffer.getLong(i + 8) | buffer.getLong(i + 16) | buffer.getLong(i + 24)
+                    | buffer.getLong(i + 32) | buffer.getLong(i + 40) | buffer.getLong(i + 48) | buffer.getLong(i + 56);
+            if (acc != 0) {
+                return false;
+            }
+        }
+        for (; i + 8 <= end; i += 8) {
+            if (buffer.getLong(i) != 0) {
+                return false;
+            }
+        }
+        for (; i < end; i++) {
+            if (buffer.get(i) != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Checks a PCM payload and counts the result
+    boolean isSilent(byte[] data, int offset, int length) {
+        if (view == null || view.array() != data) {
+            view = ByteBuffer.wrap(data).order(ByteOrder.nativeOrder());
+        }
+        boolean silent = isAllZero(view, offset, length);
+        packetsChecked++;
+        if (silent) {
+            silentPackets++;
+        }
+        return silent;
+    }
+
+    long getPacketsChecked() {
+        return packetsChecked;
+    }
+
+    long getSilentPackets() {
+        return silentPackets;
+    }
+}
@@ -0,0 +1,98 @@
+package com.netham45.android_scream_receiver;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Feeds ReceiveBufferTuner from a low-priority sampler thread instead of the receive thread.
+// The receive thread only reports packet bursts (lock-free); poll() reads the kernel UDP
+// counters when /proc/net is readable and closes a tuning window every windowMs. Windows are
+// closed whether or not the kernel counters are available, so on Android 10+ (no /proc/net
+// access) the buffer still grows from burst sizes alone, but never shrinks below its initial
+// size since there is no drop counter to show that a smaller buffer is safe.
+final class SocketStatsSampler {
+
+    private final UdpSocketStats udpSocketStats;
+    private final ReceiveBufferTuner tuner;
+    private final long windowMs;
+
+    private final AtomicLong windowPeakBurstBytes = new AtomicLong(); // Written by the receive thread
+    private volatile boolean kernelStatsAvailable;
+    private volatile String kernelStatsError = null;
+    private final AtomicLong kernelDropsTotal = new AtomicLong();
+    private final AtomicLong peakQueueBytes = new AtomicLong(); // Since the last metrics log
+
+    // Sampler thread only
+    private long lastDrops = 0;
+    private long nextWindowMs = 0;
+
+    // udpSocketStats may be null if kernel counters aren't wanted
+    SocketStatsSampler(UdpSocketStats udpSocketStats, ReceiveBufferTuner tuner, long windowMs) {
+        this.udpSocketStats = udpSocketStats;
+        this.tuner = tuner;
+        this.windowMs = windowMs;
+        this.kernelStatsAvailable = udpSocketStats != null;
+    }
+
+    // Records the size of a burst of back-to-back packets. Receive thread; cheap unless the
+    // burst is the largest of the window so far.
+    void onBurst(long burstBytes) {
+        if (burstBytes > windowPeakBurstBytes.get()) {
+            windowPeakBurstBytes.accumulateAndGet(burstBytes, Math::max);
+        }
+    }
+
+    // Samples the kernel counters and, once per window, returns the buffer size to use from now
+    // on. Returns 0 when no window closed. Sampler thread only.
+    int poll(long nowMs) {
+        if (kernelStatsAvailable) {
+            sampleKernelStats();
+        }
+        if (nextWindowMs == 0) {
+            nextWindowMs = nowMs + windowMs; // First call starts the first window
+            return 0;
+        }
+        if (nowMs < nextWindowMs) {
+            return 0;
+        }
+        nextWindowMs = nowMs + windowMs;
+        tuner.onBurst(windowPeakBurstBytes.getAndSet(0));
+        return tuner.endWindow(kernelStatsAvailable);
+    }
+
+    private void sampleKernelStats() {
+        try {
+            udpSocketStats.sample();
+        } catch (IOException e) {
+            kernelStatsError = e.getMessage();
+            kernelStatsAvailable = false; // Not coming back; stop trying
+            return;
+        }
+        long drops = udpSocketStats.getDrops();
+        long newDrops = drops >= lastDrops ? drops - lastDrops : drops; // Counter restarts with a new socket
+        lastDrops = drops;
+        kernelDropsTotal.addAndGet(newDrops);
+        long queue = udpSocketStats.getRxQueueBytes();
+        if (queue > peakQueueBytes.get()) {
+            peakQueueBytes.accumulateAndGet(queue, Math::max);
+        }
+        tuner.onQueueSample(queue, newDrops);
+    }
+
+    boolean isKernelStatsAvailable() {
+        return kernelStatsAvailable;
+    }
+
+    // Why the kernel counters became unavailable, or null
+    String getKernelStatsError() {
+        return kernelStatsError;
+    }
+
+    long getKernelDropsTotal() {
+        return kernelDropsTotal.get();
+    }
+
+    // Peak kernel queue depth since the previous call, for metrics
+    long getAndResetPeakQueueBytes() {
+        return peakQueueBytes.getAndSet(0);
+    }
+}
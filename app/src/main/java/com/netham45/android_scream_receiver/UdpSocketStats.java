@@ -0,0 +1,105 @@
+package com.netham45.android_scream_receiver;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+
+// Reads kernel-side UDP socket counters from /proc/net/udp and /proc/net/udp6.
+// For every socket bound to the given local port and owned by the given uid this sums the
+// receive queue depth (bytes waiting in the kernel) and the drop counter (datagrams discarded
+// because the socket buffer was full), so kernel drops can be told apart from drops in the app.
+// The uid filter keeps other apps' sockets on the same port out of the totals.
+final class UdpSocketStats {
+
+    static final File[] DEFAULT_PROC_FILES = { new File("/proc/net/udp"), new File("/proc/net/udp6") };
+    static final int ANY_UID = -1;
+
+    private final File[] procFiles;
+    private final int localPort;
+    private final int uid;
+
+    // Results of the last successful sample()
+    private int socketCount = 0;
+    private long rxQueueBytes = 0;
+    private long drops = 0;
+
+    UdpSocketStats(int localPort, int uid) {
+        this(DEFAULT_PROC_FILES, localPort, uid);
+    }
+
+    // uid may be ANY_UID to count every socket on the port
+    UdpSocketStats(File[] procFiles, int localPort, int uid) {
+        this.procFiles = procFiles;
+        this.localPort = localPort;
+        this.uid = uid;
+    }
+
+    // Re-reads the proc files. Missing files (e.g. no IPv6) are skipped; throws if none can be read,
+    // which is the case on Android 10+ where apps aren't allowed to read /proc/net.
+    void sample() throws IOException {
+        int sockets = 0;
+        long queue = 0;
+        long dropped = 0;
+        int filesRead = 0;
+        IOException lastError = null;
+        for (File file : procFiles) {
+            try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+                reader.readLine(); // Column header
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    String[] fields = line.trim().split("\\s+");
+                    // sl local_address rem_address st tx_queue:rx_queue tr:tm->when retrnsmt uid timeout inode ref pointer drops
+                    if (fields.length < 13 || parsePort(fields[1]) != localPort
+                            || (uid != ANY_UID && Integer.parseInt(fields[7]) != uid)) {
+                        continue;
+                    }
+                    int colon = fields[4].indexOf(':');
+                    if (colon < 0) {
+                        continue;
+                    }
+                    sockets++;
+                    queue += Long.parseLong(fields[4].substring(colon + 1), 16);
+                    dropped += Long.parseLong(fields[12]);
+                }
+                filesRead++; // Only files parsed to the end count
+            } catch (IOException e) {
+                lastError = e;
+            } catch (NumberFormatException e) {
+                lastError = new IOException("Unexpected format in " + file + ": " + e.getMessage(), e);
+            }
+        }
+        if (filesRead == 0) {
+            throw lastError != null ? lastError : new IOException("No UDP proc files to read");
+        }
+        socketCount = sockets;
+        rxQueueBytes = queue;
+        drops = dropped;
+    }
+
+    int getSocketCount() {
+        return socketCount;
+    }
+
+    long getRxQueueBytes() {
+        return rxQueueBytes;
+    }
+
+    // Cumulative count since each socket was created
+    long getDrops() {
+        return drops;
+    }
+
+    // Port is the hex field after the last ':' of "ADDRESS:PORT"
+    private static int parsePort(String address) {
+        int colon = address.lastIndexOf(':');
+        if (colon < 0) {
+            return -1;
+        }
+        try {
+            return Integer.parseInt(address.substring(colon + 1), 16);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package com.netham45.android_scream_receiver;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class AudioSinkTest {
+
+    @Test
+    public void deviceThatSupportsTheStreamRateKeepsIt() {
+        assertEquals(44100, AudioSink.chooseDeviceSampleRate(new int[]{48000, 44100, 96000}, 44100));
+        assertEquals(192000, AudioSink.chooseDeviceSampleRate(new int[]{48000, 192000}, 192000));
+    }
+
+    @Test
+    public void deviceThatTakesAnyRateKeepsTheStreamRate() {
+        assertEquals(88200, AudioSink.chooseDeviceSampleRate(new int[0], 88200));
+    }
+
+    @Test
+    public void otherwiseTheClosestHigherRateWins() {
+        // A USB DAC that only runs at 48/96 kHz, fed 44.1 kHz
+        assertEquals(48000, AudioSink.chooseDeviceSampleRate(new int[]{96000, 48000}, 44100));
+        // An HDMI sink limited to 48 kHz, fed 96 kHz
+        assertEquals(48000, AudioSink.chooseDeviceSampleRate(new int[]{32000, 48000}, 96000));
+    }
+
+    @Test
+    public void ratesWeCantResampleToAreSkipped() {
+        // 44100 -> 47999 needs more polyphase branches than the resampler builds
+        assertEquals(48000, AudioSink.chooseDeviceSampleRate(new int[]{47999, 48000}, 44100));
+        assertEquals(44100, AudioSink.chooseDeviceSampleRate(new int[]{47999, -1}, 44100));
+    }
+}
@@ -0,0 +1,217 @@
+package com.netham45.android_scream_receiver;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+public class AudioWriteSchedulerTest {
+
+    private static final int FRAME_BYTES = 4; // 16-bit stereo
+    private static final int PACKET_BYTES = 1152; // PCM per Scream packet: 288 frames, 6 ms at 48 kHz
+
+    // Stands in for a non-blocking AudioTrack: accepts up to `capacity` bytes per call
+    private static final class FakeOutput implements AudioWriteScheduler.PcmOutput {
+        final ByteArrayOutputStream accepted = new ByteArrayOutputStream();
+        final List<Integer> writeSizes = new ArrayList<>();
+        int capacity = Integer.MAX_VALUE;
+        int error = 0;
+
+        @Override
+        public int write(byte[] data, int offset, int length) {
+            writeSizes.add(length);
+            if (error != 0) {
+                return error;
+            }
+            int n = Math.min(length, capacity);
+            accepted.write(data, offset, n);
+            return n;
+        }
+    }
+
+    private static byte[] stream(int bytes) {
+        byte[] data = new byte[bytes];
+        for (int i = 0; i < bytes; i++) {
+            data[i] = (byte) (i * 31 + (i >> 8));
+        }
+        return data;
+    }
+
+    // Feeds audio a packet at a time the way AudioTrackSink does: enqueue, then flush
+    private static FakeOutput play(AudioWriteScheduler scheduler, FakeOutput output, byte[] audio) {
+        for (int offset = 0; offset + PACKET_BYTES <= audio.length; offset += PACKET_BYTES) {
+            scheduler.enqueue(audio, offset, PACKET_BYTES);
+            scheduler.flush();
+        }
+        return output;
+    }
+
+    @Test
+    public void everyFlushWritesWholeBurstsInOrder() {
+        for (int burstFrames : new int[]{96, 192, 240, 256, 480, 960}) {
+            int burstBytes = burstFrames * FRAME_BYTES;
+            FakeOutput output = new FakeOutput();
+            AudioWriteScheduler scheduler = new AudioWriteScheduler(output, burstBytes, FRAME_BYTES, 16 * burstBytes,
+                    AudioWriteScheduler.OverflowPolicy.DROP_OLDEST);
+            byte[] audio = stream(PACKET_BYTES * 500);
+            play(scheduler, output, audio);
+            for (int size : output.writeSizes) {
+                assertEquals("burst " + burstFrames, 0, size % burstBytes);
+            }
+            scheduler.drain(); // The tail goes out as a partial burst
+            assertArrayEquals(audio, output.accepted.toByteArray());
+            assertEquals(0, scheduler.getStagedBytes());
+            assertEquals(0, scheduler.getBytesDropped());
+        }
+    }
+
+    // Write calls per second of audio: one blocking write per packet before, versus burst-aligned
+    // coalesced writes now. With 6 ms packets and bursts larger than a packet, some packets
+    // complete no burst and cost no write at all.
+    @Test
+    public void writeCallsPerSecondOfAudio() {
+        int packetsPerSecond = 48000 / (PACKET_BYTES / FRAME_BYTES);
+        byte[] oneSecond = stream(PACKET_BYTES * packetsPerSecond);
+        for (int burstFrames : new int[]{192, 256, 480, 960}) {
+            int burstBytes = burstFrames * FRAME_BYTES;
+            FakeOutput output = new FakeOutput();
+            AudioWriteScheduler scheduler = new AudioWriteScheduler(output, burstBytes, FRAME_BYTES, 16 * burstBytes,
+                    AudioWriteScheduler.OverflowPolicy.DROP_OLDEST);
+            play(scheduler, output, oneSecond);
+            long calls = scheduler.getWriteCalls();
+            assertTrue(calls <= packetsPerSecond);
+            if (burstBytes > PACKET_BYTES) {
+                // At most one write per completed burst
+                assertTrue(calls <= oneSecond.length / burstBytes);
+            }
+            System.out.println(String.format(Locale.US,
+                    "%d-frame bursts: %d write calls per second of audio (per-packet writes: %d), avg %d bytes",
+                    burstFrames, calls, packetsPerSecond, scheduler.getBytesWritten() / Math.max(1, calls)));
+        }
+    }
+
+    // The case coalescing is for: high-rate input resampled to a 48 kHz native rate the way
+    // AudioTrackSink does it. A 1152-byte packet is then only 1.5 ms (192 kHz) or 3 ms (96 kHz),
+    // and only 72 or 144 output frames, so writing each packet took 666 or 333 calls per second.
+    // Burst-aligned writes cut that to about one per burst: 250/s with 192-frame bursts.
+    @Test
+    public void resampledHighRateInputIsCoalesced() {
+        int nativeRate = 48000;
+        for (int inputRate : new int[]{96000, 192000}) {
+            int packetsPerSecond = inputRate / (PACKET_BYTES / FRAME_BYTES);
+            byte[] oneSecond = stream(PACKET_BYTES * packetsPerSecond);
+            for (int burstFrames : new int[]{192, 256, 480}) {
+                int burstBytes = burstFrames * FRAME_BYTES;
+                FakeOutput output = new FakeOutput();
+                AudioWriteScheduler scheduler = new AudioWriteScheduler(output, burstBytes, FRAME_BYTES, 16 * burstBytes,
+                        AudioWriteScheduler.OverflowPolicy.DROP_OLDEST);
+                PolyphaseResampler resampler = new PolyphaseResampler(inputRate, nativeRate, 2);
+                byte[] resampled = new byte[resampler.maxOutputBytes(PACKET_BYTES)];
+                long outputBytes = 0;
+                for (int offset = 0; offset < oneSecond.length; offset += PACKET_BYTES) {
+                    int length = resampler.process(oneSecond, offset, PACKET_BYTES, resampled, 0);
+                    outputBytes += length;
+                    scheduler.enqueue(resampled, 0, length);
+                    scheduler.flush();
+                }
+                long calls = scheduler.getWriteCalls();
+                assertTrue(calls <= outputBytes / burstBytes); // One write per completed burst at most
+                assertTrue(calls < packetsPerSecond);
+                assertEquals(0, scheduler.getBytesDropped());
+                System.out.println(String.format(Locale.US,
+                        "%d Hz -> %d Hz, %d-frame bursts: %d write calls per second of audio (per-packet writes: %d), avg %d bytes",
+                        inputRate, nativeRate, burstFrames, calls, packetsPerSecond,
+                        scheduler.getBytesWritten() / Math.max(1, calls)));
+            }
+        }
+    }
+
+    @Test
+    public void shortWritesStayStagedForTheNextFlush() {
+        int burstBytes = 256 * FRAME_BYTES;
+        FakeOutput output = new FakeOutput();
+        AudioWriteScheduler scheduler = new AudioWriteScheduler(output, burstBytes, FRAME_BYTES, 16 * burstBytes,
+                AudioWriteScheduler.OverflowPolicy.DROP_OLDEST);
+        byte[] audio = stream(burstBytes * 4);
+        output.capacity = burstBytes; // Track only has room for one burst per write
+        scheduler.enqueue(audio, 0, audio.length);
+        assertEquals(burstBytes, scheduler.flush());
+        assertEquals(3 * burstBytes, scheduler.getStagedBytes());
+        output.capacity = Integer.MAX_VALUE;
+        assertEquals(3 * burstBytes, scheduler.flush());
+        assertArrayEquals(audio, output.accepted.toByteArray());
+    }
+
+    @Test
+    public void dropOldestKeepsTheNewestAudio() {
+        int burstBytes = 64 * FRAME_BYTES;
+        FakeOutput output = new FakeOutput();
+        output.capacity = 0; // Output stalled
+        AudioWriteScheduler scheduler = new AudioWriteScheduler(output, burstBytes, FRAME_BYTES, 4 * burstBytes,
+                AudioWriteScheduler.OverflowPolicy.DROP_OLDEST);
+        byte[] audio = stream(10 * burstBytes);
+        for (int offset = 0; offset < audio.length; offset += burstBytes) {
+            scheduler.enqueue(audio, offset, burstBytes);
+            scheduler.flush();
+        }
+        assertEquals(6 * burstBytes, scheduler.getBytesDropped());
+        assertEquals(6, scheduler.getOverflowEvents());
+        output.capacity = Integer.MAX_VALUE;
+        scheduler.flush();
+        byte[] expected = new byte[4 * burstBytes];
+        System.arraycopy(audio, 6 * burstBytes, expected, 0, expected.length);
+        assertArrayEquals(expected, output.accepted.toByteArray());
+    }
+
+    @Test
+    public void dropNewestKeepsTheOldestAudio() {
+        int burstBytes = 64 * FRAME_BYTES;
+        FakeOutput output = new FakeOutput();
+        output.capacity = 0;
+        AudioWriteScheduler scheduler = new AudioWriteScheduler(output, burstBytes, FRAME_BYTES, 4 * burstBytes,
+                AudioWriteScheduler.OverflowPolicy.DROP_NEWEST);
+        byte[] audio = stream(10 * burstBytes);
+        scheduler.enqueue(audio, 0, audio.length);
+        assertEquals(6 * burstBytes, scheduler.getBytesDropped());
+        output.capacity = Integer.MAX_VALUE;
+        scheduler.flush();
+        byte[] expected = new byte[4 * burstBytes];
+        System.arraycopy(audio, 0, expected, 0, expected.length);
+        assertArrayEquals(expected, output.accepted.toByteArray());
+    }
+
+    @Test
+    public void partialFramesAreNeverStaged() {
+        FakeOutput output = new FakeOutput();
+        AudioWriteScheduler scheduler = new AudioWriteScheduler(output, 64 * FRAME_BYTES, FRAME_BYTES, 1024,
+                AudioWriteScheduler.OverflowPolicy.DROP_OLDEST);
+        scheduler.enqueue(stream(10), 0, 10);
+        assertEquals(8, scheduler.getStagedBytes());
+    }
+
+    @Test
+    public void errorsAreCountedAndKeepTheAudio() {
+        int burstBytes = 64 * FRAME_BYTES;
+        FakeOutput output = new FakeOutput();
+        AudioWriteScheduler scheduler = new AudioWriteScheduler(output, burstBytes, FRAME_BYTES, 4 * burstBytes,
+                AudioWriteScheduler.OverflowPolicy.DROP_OLDEST);
+        scheduler.enqueue(stream(burstBytes), 0, burstBytes);
+        output.error = -6; // AudioTrack.ERROR_DEAD_OBJECT
+        assertEquals(-6, scheduler.flush());
+        assertEquals(1, scheduler.getWriteErrors());
+        assertEquals(burstBytes, scheduler.getStagedBytes());
+        scheduler.clear();
+        assertEquals(0, scheduler.getStagedBytes());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void burstMustBeWholeFrames() {
+        new AudioWriteScheduler(new FakeOutput(), 1023, FRAME_BYTES, 4096, AudioWriteScheduler.OverflowPolicy.DROP_OLDEST);
+    }
+}
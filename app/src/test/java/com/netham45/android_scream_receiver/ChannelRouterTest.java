@@ -0,0 +1,242 @@
+package com.netham45.android_scream_receiver;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import android.media.AudioFormat;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Locale;
+
+public class ChannelRouterTest {
+
+    @Test
+    public void emptySpecIsOneRouteWithAllChannels() {
+        for (String spec : new String[]{null, "", "  "}) {
+            List<ChannelRouter.RouteSpec> routes = ChannelRouter.parseRoutes(spec);
+            assertEquals(1, routes.size());
+            assertNull(routes.get(0).channels);
+            assertEquals(0, routes.get(0).deviceId);
+        }
+    }
+
+    @Test
+    public void parsesChannelsAndDevices() {
+        List<ChannelRouter.RouteSpec> routes = ChannelRouter.parseRoutes(" 1, 2 @5 ; 3,4@ 7;6;");
+        assertEquals(3, routes.size());
+        assertArrayEquals(new int[]{0, 1}, routes.get(0).channels);
+        assertEquals(5, routes.get(0).deviceId);
+        assertArrayEquals(new int[]{2, 3}, routes.get(1).channels);
+        assertEquals(7, routes.get(1).deviceId);
+        assertArrayEquals(new int[]{5}, routes.get(2).channels);
+        assertEquals(0, routes.get(2).deviceId);
+        assertEquals("1,2@5", routes.get(0).toString());
+        assertEquals("6", routes.get(2).toString());
+    }
+
+    @Test
+    public void badSpecsAreRejected() {
+        for (String spec : new String[]{"0,1", "1,x", "1,,2", "1@dev", ";;", "-1", "1@"}) {
+            try {
+                ChannelRouter.parseRoutes(spec);
+                fail("accepted '" + spec + "'");
+            } catch (IllegalArgumentException e) {
+                assertTrue(e.getMessage(), e.getMessage().contains(spec));
+            }
+        }
+    }
+
+    @Test
+    public void identityRoutesArePassedThroughWithoutCopying() {
+        ChannelRouter router = new ChannelRouter();
+        RecordingAudioSink all = new RecordingAudioSink("all");
+        RecordingAudioSink inOrder = new RecordingAudioSink("1-4");
+        router.addRoute(null, all);
+        router.addRoute(new int[]{0, 1, 2, 3}, inOrder);
+        assertEquals(2, router.configure(48000, 4, AudioFormat.ENCODING_PCM_16BIT, 2));
+
+        byte[] packet = pcm(3, 4 * 2 * 10);
+        byte[] source = new byte[packet.length + 3];
+        System.arraycopy(packet, 0, source, 3, packet.length);
+        router.route(source, 3, packet.length);
+        assertArrayEquals(packet, all.getWritten());
+        assertArrayEquals(packet, inOrder.getWritten());
+        assertEquals("48000/4/2/2;", all.getConfigurations());
+    }
+
+    @Test
+    public void splitsSixteenBitPairs() {
+        ChannelRouter router = new ChannelRouter();
+        RecordingAudioSink front = new RecordingAudioSink("1,2");
+        RecordingAudioSink swapped = new RecordingAudioSink("4,3");
+        router.addRoute(new int[]{0, 1}, front);
+        router.addRoute(new int[]{3, 2}, swapped);
+        assertEquals(2, router.configure(48000, 4, AudioFormat.ENCODING_PCM_16BIT, 2));
+
+        int frames = 240;
+        byte[] source = pcm(1, frames * 8);
+        router.route(source, 0, source.length);
+        assertArrayEquals(reference(source, frames, 4, 2, new int[]{0, 1}), front.getWritten());
+        assertArrayEquals(reference(source, frames, 4, 2, new int[]{3, 2}), swapped.getWritten());
+        assertEquals(2, front.getChannels());
+    }
+
+    @Test
+    public void genericPathHandlesOtherWidthsAndChannelCounts() {
+        int[][] selections = {{2}, {5, 0, 3}, {1, 1}, {0, 1, 2, 3, 4}};
+        for (int bytesPerSample : new int[]{1, 2, 3, 4}) {
+            for (int[] channels : selections) {
+                int frames = 37;
+                byte[] source = pcm(bytesPerSample * 31 + channels.length, frames * 6 * bytesPerSample + 5);
+                byte[] dst = new byte[frames * channels.length * bytesPerSample + 2];
+                ChannelRouter.extractChannels(source, 5, frames, 6, bytesPerSample, channels, dst, 2);
+                byte[] expected = reference(source, 5, frames, 6, bytesPerSample, channels);
+                for (int i = 0; i < expected.length; i++) {
+                    assertEquals(bytesPerSample + "-byte " + channels.length + "ch at " + i, expected[i], dst[i + 2]);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void partialTrailingFrameIsDropped() {
+        ChannelRouter router = new ChannelRouter();
+        RecordingAudioSink all = new RecordingAudioSink("all");
+        RecordingAudioSink pair = new RecordingAudioSink("2,1");
+        router.addRoute(null, all);
+        router.addRoute(new int[]{1, 0}, pair);
+        router.configure(48000, 2, AudioFormat.ENCODING_PCM_16BIT, 2);
+        byte[] source = pcm(9, 4 * 10 + 3);
+        router.route(source, 0, source.length);
+        assertEquals(40, all.getBytesWritten());
+        assertEquals(40, pair.getBytesWritten());
+    }
+
+    @Test
+    public void routesBeyondTheStreamOrRejectedBySinkStayInactive() {
+        ChannelRouter router = new ChannelRouter();
+        RecordingAudioSink stereo = new RecordingAudioSink("1,2");
+        RecordingAudioSink rear = new RecordingAudioSink("5,6");
+        RecordingAudioSink picky = new RecordingAudioSink("all");
+        picky.setAcceptFormats(false);
+        router.addRoute(new int[]{0, 1}, stereo);
+        router.addRoute(new int[]{4, 5}, rear);
+        router.addRoute(null, picky);
+        assertEquals(1, router.configure(48000, 2, AudioFormat.ENCODING_PCM_16BIT, 2));
+        assertTrue(rear.isReleased());
+        assertEquals(0, rear.getConfigureCalls());
+
+        byte[] source = pcm(4, 4 * 8);
+        router.route(source, 0, source.length);
+        router.drain();
+        assertEquals(source.length, stereo.getBytesWritten());
+        assertEquals(0, rear.getBytesWritten());
+        assertEquals(0, picky.getBytesWritten());
+
+        // A 6-channel stream activates the rear route
+        assertEquals(2, router.configure(48000, 6, AudioFormat.ENCODING_PCM_16BIT, 2));
+        router.route(pcm(5, 12 * 8), 0, 12 * 8);
+        assertEquals(4 * 8, rear.getBytesWritten());
+    }
+
+    @Test
+    public void pauseAndResumeReachEverySink() {
+        ChannelRouter router = new ChannelRouter();
+        RecordingAudioSink a = new RecordingAudioSink("a");
+        RecordingAudioSink b = new RecordingAudioSink("b");
+        router.addRoute(null, a);
+        router.addRoute(new int[]{7}, b); // Inactive routes are paused too
+        router.configure(48000, 2, AudioFormat.ENCODING_PCM_16BIT, 2);
+        router.pause();
+        assertTrue(a.isPaused() && b.isPaused());
+        router.resume();
+        assertTrue(!a.isPaused() && !b.isPaused());
+    }
+
+    @Test
+    public void nullSinksCountRoutedFrames() {
+        ChannelRouter router = new ChannelRouter();
+        NullAudioSink all = new NullAudioSink("all");
+        NullAudioSink pair = new NullAudioSink("3,4");
+        router.addRoute(null, all);
+        router.addRoute(new int[]{2, 3}, pair);
+        router.configure(48000, 8, AudioFormat.ENCODING_PCM_16BIT, 2);
+        byte[] source = pcm(2, 16 * 100);
+        router.route(source, 0, source.length);
+        assertEquals(100, all.getFramesWritten());
+        assertEquals(100, pair.getFramesWritten());
+        assertEquals(400, pair.getBytesWritten());
+
+        router.pause();
+        router.route(source, 0, source.length);
+        assertEquals(1, pair.getWriteCalls());
+    }
+
+    // Routing cost per 7.1 packet into null sinks: passthrough, four 16-bit stereo pairs (the
+    // specialized path) and four 3-channel routes (the generic path). Prints numbers only.
+    @Test
+    public void benchmarkRoutingIntoNullSinks() {
+        int frames = 240; // 5 ms at 48 kHz
+        byte[] source = pcm(11, frames * 8 * 2);
+        int[][][] layouts = {
+                {null},
+                {{0, 1}, {2, 3}, {4, 5}, {6, 7}},
+                {{0, 1, 2}, {3, 4, 5}, {6, 7, 0}, {1, 2, 3}},
+        };
+        String[] names = {"passthrough", "4 stereo pairs", "4 x 3ch generic"};
+        for (int l = 0; l < layouts.length; l++) {
+            ChannelRouter router = new ChannelRouter();
+            NullAudioSink[] sinks = new NullAudioSink[layouts[l].length];
+            for (int r = 0; r < sinks.length; r++) {
+                sinks[r] = new NullAudioSink(names[l] + r);
+                router.addRoute(layouts[l][r], sinks[r]);
+            }
+            router.configure(48000, 8, AudioFormat.ENCODING_PCM_16BIT, 2);
+            int iterations = 200_000;
+            for (int i = 0; i < iterations; i++) {
+                router.route(source, 0, source.length); // Warm-up
+            }
+            long start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                router.route(source, 0, source.length);
+            }
+            long elapsed = System.nanoTime() - start;
+            assertEquals(2L * iterations * frames, sinks[0].getFramesWritten());
+            System.out.println(String.format(Locale.US, "route 7.1 %d-frame packet, %s: %.1f ns",
+                    frames, names[l], (double) elapsed / iterations));
+        }
+    }
+
+    private static byte[] pcm(int seed, int length) {
+        byte[] data = new byte[length];
+        int x = seed * 0x9E3779B9 + 1;
+        for (int i = 0; i < length; i++) {
+            x = x * 1103515245 + 12345;
+            data[i] = (byte) (x >>> 16);
+        }
+        return data;
+    }
+
+    private static byte[] reference(byte[] src, int frames, int srcChannels, int bytesPerSample, int[] channels) {
+        return reference(src, 0, frames, srcChannels, bytesPerSample, channels);
+    }
+
+    // Straightforward sample-by-sample copy to check the router against
+    private static byte[] reference(byte[] src, int offset, int frames, int srcChannels, int bytesPerSample, int[] channels) {
+        byte[] out = new byte[frames * channels.length * bytesPerSample];
+        int d = 0;
+        for (int f = 0; f < frames; f++) {
+            for (int channel : channels) {
+                for (int k = 0; k < bytesPerSample; k++) {
+                    out[d++] = src[offset + (f * srcChannels + channel) * bytesPerSample + k];
+                }
+            }
+        }
+        return out;
+    }
+}
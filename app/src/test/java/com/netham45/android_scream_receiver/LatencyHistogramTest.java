@@ -0,0 +1,130 @@
+package com.netham45.android_scream_receiver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+public class LatencyHistogramTest {
+
+    // Worst-case relative error of a bucket upper bound: one sub-bucket out of 32
+    private static final double MAX_RELATIVE_ERROR = 1.0 / 32;
+
+    @Test
+    public void emptyHistogramReportsZero() {
+        LatencyHistogram histogram = new LatencyHistogram("empty");
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMeanNanos());
+        assertEquals(0, histogram.getPercentileNanos(50));
+        assertEquals(0, histogram.getMaxNanos());
+    }
+
+    @Test
+    public void smallValuesAreExact() {
+        LatencyHistogram histogram = new LatencyHistogram("small");
+        for (int value = 0; value < 64; value++) {
+            histogram.record(value);
+        }
+        for (int value = 0; value < 64; value++) {
+            // Percentile that lands exactly on the (value + 1)th sample
+            assertEquals(value, histogram.getPercentileNanos((value + 1) * 100.0 / 64));
+        }
+        assertEquals(63, histogram.getMaxNanos());
+        assertEquals(31, histogram.getMeanNanos());
+    }
+
+    @Test
+    public void everyValueLandsInABucketWithinTheErrorBound() {
+        // Each value on its own: the reported percentile is its bucket's upper bound
+        Random random = new Random(1);
+        for (int i = 0; i < 20_000; i++) {
+            long value = 64 + (long) (Math.exp(random.nextDouble() * Math.log(LatencyHistogram.MAX_VALUE_NANOS / 64.0)) * 64);
+            value = Math.min(value, LatencyHistogram.MAX_VALUE_NANOS);
+            LatencyHistogram histogram = new LatencyHistogram("one");
+            histogram.record(value);
+            histogram.record(LatencyHistogram.MAX_VALUE_NANOS); // So max doesn't cap the bound
+            long reported = histogram.getPercentileNanos(50);
+            assertTrue(value + " reported as " + reported, reported >= value);
+            assertTrue(value + " reported as " + reported, reported - value <= value * MAX_RELATIVE_ERROR);
+        }
+    }
+
+    @Test
+    public void percentilesMatchExactValuesWithinTheErrorBound() {
+        // Log-normal-ish wakeup latencies: mostly tens of microseconds with a long tail
+        Random random = new Random(7);
+        int count = 100_000;
+        long[] values = new long[count];
+        LatencyHistogram histogram = new LatencyHistogram("latency");
+        for (int i = 0; i < count; i++) {
+            values[i] = (long) Math.exp(10 + random.nextGaussian() * 1.5);
+            histogram.record(values[i]);
+        }
+        Arrays.sort(values);
+
+        for (double percentile : new double[]{1, 10, 50, 90, 99, 99.9, 99.99, 100}) {
+            long exact = values[(int) Math.ceil(count * percentile / 100.0) - 1];
+            long reported = histogram.getPercentileNanos(percentile);
+            assertTrue("p" + percentile + ": " + reported + " < " + exact, reported >= exact);
+            assertTrue("p" + percentile + ": " + reported + " vs " + exact, reported - exact <= exact * MAX_RELATIVE_ERROR);
+        }
+        assertEquals(values[count - 1], histogram.getMaxNanos());
+        assertEquals(values[count - 1], histogram.getPercentileNanos(100));
+        long sum = 0;
+        for (long value : values) {
+            sum += value;
+        }
+        assertEquals(sum / count, histogram.getMeanNanos());
+    }
+
+    @Test
+    public void outOfRangeValuesAreClamped() {
+        LatencyHistogram histogram = new LatencyHistogram("clamp");
+        histogram.record(-5);
+        histogram.record(Long.MAX_VALUE);
+        assertEquals(2, histogram.getCount());
+        assertEquals(0, histogram.getPercentileNanos(50));
+        assertEquals(LatencyHistogram.MAX_VALUE_NANOS, histogram.getMaxNanos());
+        assertEquals(LatencyHistogram.MAX_VALUE_NANOS, histogram.getPercentileNanos(100));
+    }
+
+    @Test
+    public void resetClearsEverything() {
+        LatencyHistogram histogram = new LatencyHistogram("reset");
+        histogram.record(1_000_000);
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMaxNanos());
+        assertEquals(0, histogram.getPercentileNanos(99));
+        histogram.record(100);
+        assertEquals(100, histogram.getMaxNanos());
+    }
+
+    @Test
+    public void concurrentRecordsAreAllCounted() throws InterruptedException {
+        final LatencyHistogram histogram = new LatencyHistogram("concurrent");
+        final int perThread = 200_000;
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            final long base = (t + 1) * 1000L;
+            Thread thread = new Thread(() -> {
+                for (int i = 0; i < perThread; i++) {
+                    histogram.record(base + i % 1000);
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(4L * perThread, histogram.getCount());
+        assertEquals(4999, histogram.getMaxNanos());
+        assertEquals((1499 + 2499 + 3499 + 4499) / 4, histogram.getMeanNanos());
+    }
+}
@@ -0,0 +1,52 @@
+package com.netham45.android_scream_receiver;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+
+// Sends Scream-sized datagrams to a port on the loopback interface, in back-to-back bursts like
+// a Windows sender that wakes up late, so receive buffering can be exercised without a network.
+final class LoopbackLoadGenerator implements Closeable {
+
+    private final DatagramSocket socket;
+    private final DatagramPacket packet;
+    private long packetsSent = 0;
+
+    LoopbackLoadGenerator(int port) throws IOException {
+        socket = new DatagramSocket();
+        byte[] data = ScreamPackets.pcm16(ScreamPackets.RATE_48000, 2, 288, 1); // 1152 bytes of PCM
+        packet = new DatagramPacket(data, data.length, InetAddress.getLoopbackAddress(), port);
+    }
+
+    int getPacketBytes() {
+        return packet.getLength();
+    }
+
+    long getPacketsSent() {
+        return packetsSent;
+    }
+
+    // Sends packetsPerBurst datagrams as fast as possible
+    void sendBurst(int packetsPerBurst) throws IOException {
+        for (int i = 0; i < packetsPerBurst; i++) {
+            socket.send(packet);
+            packetsSent++;
+        }
+    }
+
+    // Sends bursts separated by gapMillis, e.g. 4 packets every 24 ms for a 6 ms packet cadence
+    // delivered late in clumps
+    void sendBursts(int bursts, int packetsPerBurst, long gapMillis) throws IOException, InterruptedException {
+        for (int i = 0; i < bursts; i++) {
+            sendBurst(packetsPerBurst);
+            Thread.sleep(gapMillis);
+        }
+    }
+
+    @Override
+    public void close() {
+        socket.close();
+    }
+}
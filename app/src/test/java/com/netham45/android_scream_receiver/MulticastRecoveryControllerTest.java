@@ -0,0 +1,168 @@
+package com.netham45.android_scream_receiver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class MulticastRecoveryControllerTest {
+
+    private static final long MS = 1_000_000L;
+
+    // Stands in for the ConnectivityManager-backed monitor
+    private static final class FakeNetworkMonitor implements NetworkMonitor {
+        private Listener listener;
+
+        @Override
+        public void start(Listener listener) {
+            this.listener = listener;
+        }
+
+        @Override
+        public void stop() {
+            listener = null;
+        }
+
+        void available(String interfaceName) {
+            listener.onNetworkChanged(interfaceName);
+        }
+
+        void lost() {
+            listener.onNetworkLost();
+        }
+    }
+
+    private long now = 1000 * MS;
+    private int interrupts = 0;
+    private FakeNetworkMonitor monitor;
+    private MulticastRecoveryController controller;
+
+    @Before
+    public void setUp() {
+        monitor = new FakeNetworkMonitor();
+        controller = new MulticastRecoveryController(() -> interrupts++, () -> now);
+        monitor.start(controller);
+    }
+
+    // What the network thread does when it (re)opens the socket
+    private void rebuild() {
+        assertTrue(controller.shouldRebuild());
+        controller.onRebuildStarted();
+    }
+
+    @Test
+    public void initialNetworkReportDoesNotRebuild() {
+        assertNull(controller.getInterfaceName());
+        monitor.available("wlan0");
+        assertFalse(controller.shouldRebuild());
+        assertEquals(0, interrupts);
+        assertEquals("wlan0", controller.getInterfaceName());
+        assertEquals(-1, controller.onPacketReceived(now));
+        assertEquals(0, controller.getRecoveries());
+    }
+
+    @Test
+    public void networkChangeRebuildsOnTheNewInterfaceWithoutBackOff() {
+        monitor.available("wlan0");
+        now += 10_000 * MS;
+        monitor.available("rmnet0");
+        assertTrue(controller.shouldRebuild());
+        assertFalse(controller.shouldBackOff());
+        assertEquals(1, interrupts); // The blocked receive() is interrupted straight away
+        assertEquals("rmnet0", controller.getInterfaceName());
+
+        now += 5 * MS;
+        assertEquals(-1, controller.onPacketReceived(now)); // Still the old socket
+        rebuild();
+        now += 40 * MS;
+        assertEquals(45 * MS, controller.onPacketReceived(now));
+        assertEquals(-1, controller.onPacketReceived(now + MS)); // Only the first packet counts
+        assertEquals(1, controller.getRecoveries());
+    }
+
+    @Test
+    public void rapidChangesWhileRoamingAreTimedFromTheFirst() {
+        monitor.available("wlan0");
+        monitor.available("wlan0"); // onAvailable
+        now += 100 * MS;
+        monitor.available("wlan0"); // onLinkPropertiesChanged with the late addresses
+        assertEquals(2, interrupts);
+        assertFalse(controller.shouldBackOff());
+        rebuild();
+        now += 20 * MS;
+        assertEquals(120 * MS, controller.onPacketReceived(now));
+    }
+
+    @Test
+    public void lossThenRegain() {
+        monitor.available("wlan0");
+        monitor.lost();
+        assertFalse(controller.shouldRebuild()); // Nothing to rebuild on until a network is back
+        assertEquals(0, interrupts);
+        now += 10 * MS;
+        assertEquals(-1, controller.onPacketReceived(now)); // Stray packet on the old socket
+
+        now += 2000 * MS;
+        monitor.available("wlan1");
+        assertTrue(controller.shouldRebuild());
+        assertFalse(controller.shouldBackOff());
+        assertEquals("wlan1", controller.getInterfaceName());
+        rebuild();
+        now += 30 * MS;
+        assertEquals(2040 * MS, controller.onPacketReceived(now)); // Measured from the loss
+    }
+
+    @Test
+    public void lossBeforeAnyReportStillRebuildsOnRegain() {
+        monitor.lost();
+        monitor.available("wlan0");
+        assertTrue(controller.shouldRebuild());
+    }
+
+    @Test
+    public void receiveErrorRebuildsWithBackOff() {
+        monitor.available("wlan0");
+        controller.onReceiveError();
+        assertTrue(controller.shouldRebuild());
+        assertTrue(controller.shouldBackOff());
+        assertEquals(1, interrupts);
+        rebuild();
+        assertFalse(controller.shouldBackOff());
+        now += 600 * MS;
+        assertEquals(600 * MS, controller.onPacketReceived(now));
+    }
+
+    @Test
+    public void networkChangeAfterReceiveErrorSkipsBackOff() {
+        monitor.available("wlan0");
+        controller.onReceiveError();
+        monitor.available("wlan1");
+        assertTrue(controller.shouldRebuild());
+        assertFalse(controller.shouldBackOff());
+    }
+
+    @Test
+    public void recoveryStatistics() {
+        monitor.available("wlan0");
+        long[] gaps = {300 * MS, 80 * MS, 1200 * MS};
+        for (long gap : gaps) {
+            controller.onReceiveError();
+            rebuild();
+            now += gap;
+            assertEquals(gap, controller.onPacketReceived(now));
+        }
+        assertEquals(3, controller.getRecoveries());
+        assertEquals(1200 * MS, controller.getLastRecoveryNanos());
+        assertEquals(1200 * MS, controller.getMaxRecoveryNanos());
+
+        controller.onReceiveError();
+        rebuild();
+        now += 50 * MS;
+        controller.onPacketReceived(now);
+        assertEquals(50 * MS, controller.getLastRecoveryNanos());
+        assertEquals(1200 * MS, controller.getMaxRecoveryNanos());
+    }
+}
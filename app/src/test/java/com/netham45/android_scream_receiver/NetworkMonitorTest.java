@@ -0,0 +1,39 @@
+package com.netham45.android_scream_receiver;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+public class NetworkMonitorTest {
+
+    private static Set<InetAddress> addresses(String... hosts) throws UnknownHostException {
+        Set<InetAddress> set = new HashSet<>();
+        for (String host : hosts) {
+            set.add(InetAddress.getByName(host));
+        }
+        return set;
+    }
+
+    @Test
+    public void sameInterfaceAndAddressesIsNotAChange() throws UnknownHostException {
+        // What IPv6 privacy address rotation or a lifetime refresh looks like after filtering
+        assertFalse(NetworkMonitor.linkChanged("wlan0", addresses("192.168.1.20"), "wlan0", addresses("192.168.1.20")));
+        assertFalse(NetworkMonitor.linkChanged(null, Collections.<InetAddress>emptySet(), null,
+                Collections.<InetAddress>emptySet()));
+    }
+
+    @Test
+    public void interfaceOrAddressChangesAreReported() throws UnknownHostException {
+        assertTrue(NetworkMonitor.linkChanged("wlan0", addresses("192.168.1.20"), "eth0", addresses("192.168.1.20")));
+        assertTrue(NetworkMonitor.linkChanged(null, addresses(), "wlan0", addresses()));
+        assertTrue(NetworkMonitor.linkChanged("wlan0", addresses(), "wlan0", addresses("192.168.1.20"))); // DHCP done
+        assertTrue(NetworkMonitor.linkChanged("wlan0", addresses("192.168.1.20"), "wlan0", addresses("10.0.0.5")));
+    }
+}
@@ -0,0 +1,174 @@
+package com.netham45.android_scream_receiver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class PacketHandoffQueueTest {
+
+    private static final int SLOT_SIZE = 64;
+    private static final long TIMEOUT_NANOS = 5_000_000_000L;
+
+    @Test(expected = IllegalArgumentException.class)
+    public void slotCountMustBeAPowerOfTwo() {
+        new PacketHandoffQueue(6, SLOT_SIZE);
+    }
+
+    @Test
+    public void fullQueueDropsAndCounts() {
+        PacketHandoffQueue queue = new PacketHandoffQueue(4, SLOT_SIZE);
+        byte[] packet = new byte[8];
+        for (int i = 0; i < 4; i++) {
+            assertTrue(queue.offer(packet, 0, packet.length));
+        }
+        assertTrue(queue.isFull());
+        assertFalse(queue.offer(packet, 0, packet.length));
+        assertEquals(1, queue.getDroppedPackets());
+
+        queue.release();
+        assertFalse(queue.isFull());
+        assertTrue(queue.offer(packet, 0, packet.length));
+        assertEquals(1, queue.getDroppedPackets());
+    }
+
+    @Test
+    public void longPacketsAreTruncatedToTheSlot() {
+        PacketHandoffQueue queue = new PacketHandoffQueue(2, SLOT_SIZE);
+        byte[] packet = new byte[SLOT_SIZE + 10];
+        packet[SLOT_SIZE - 1] = 7;
+        queue.offer(packet, 0, packet.length);
+        int slot = queue.take(0, false);
+        assertEquals(SLOT_SIZE, queue.lengthOf(slot));
+        assertEquals(7, queue.getBuffer()[queue.offsetOf(slot) + SLOT_SIZE - 1]);
+    }
+
+    @Test
+    public void takeTimesOutWhenEmpty() {
+        PacketHandoffQueue queue = new PacketHandoffQueue(2, SLOT_SIZE);
+        long start = System.nanoTime();
+        assertEquals(-1, queue.take(20_000_000L, false));
+        assertTrue(System.nanoTime() - start >= 20_000_000L);
+        assertEquals(-1, queue.take(1_000_000L, true));
+    }
+
+    // What the render loop does while sleeping: a parked wait must not burn CPU, unlike busy-poll
+    @Test
+    public void parkedTakeDoesNotSpin() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        assumeTrue(threads.isCurrentThreadCpuTimeSupported());
+        PacketHandoffQueue queue = new PacketHandoffQueue(2, SLOT_SIZE);
+        long waitNanos = 200_000_000L;
+
+        long cpuBefore = threads.getCurrentThreadCpuTime();
+        assertEquals(-1, queue.take(waitNanos, false));
+        long parkedCpu = threads.getCurrentThreadCpuTime() - cpuBefore;
+
+        cpuBefore = threads.getCurrentThreadCpuTime();
+        assertEquals(-1, queue.take(waitNanos, true));
+        long spinningCpu = threads.getCurrentThreadCpuTime() - cpuBefore;
+
+        System.out.println(String.format(Locale.US, "200 ms empty wait: parked %.1f ms CPU, busy-poll %.1f ms CPU",
+                parkedCpu / 1e6, spinningCpu / 1e6));
+        assertTrue("parked wait used " + parkedCpu + " ns of CPU", parkedCpu < waitNanos / 10);
+    }
+
+    @Test
+    public void parkedConsumerSeesEveryPacketInOrderUnderContention() throws InterruptedException {
+        runStress(false);
+    }
+
+    @Test
+    public void busyPollConsumerSeesEveryPacketInOrderUnderContention() throws InterruptedException {
+        runStress(true);
+    }
+
+    // Two producers (like the receive thread and a trace replay) each send a numbered sequence
+    // through a small queue while spinning threads compete for every core. Producers retry on a
+    // full queue, so nothing may be lost: the consumer must see every packet exactly once, each
+    // producer's packets in order, with the payload intact.
+    private static void runStress(boolean busyPoll) throws InterruptedException {
+        final int producers = 2;
+        final int perProducer = 20_000;
+        final PacketHandoffQueue queue = new PacketHandoffQueue(8, SLOT_SIZE);
+        final AtomicBoolean running = new AtomicBoolean(true);
+
+        List<Thread> contenders = new ArrayList<>();
+        for (int i = 0; i < Runtime.getRuntime().availableProcessors(); i++) {
+            Thread contender = new Thread(() -> {
+                long x = 1;
+                while (running.get()) {
+                    x = x * 6364136223846793005L + 1442695040888963407L; // Synthetic CPU load
+                }
+                if (x == 42) {
+                    System.out.println(x);
+                }
+            }, "Contender" + i);
+            contender.setDaemon(true);
+            contenders.add(contender);
+            contender.start();
+        }
+
+        List<Thread> producerThreads = new ArrayList<>();
+        for (int p = 0; p < producers; p++) {
+            final int producer = p;
+            Thread thread = new Thread(() -> {
+                byte[] packet = new byte[12];
+                ByteBuffer buffer = ByteBuffer.wrap(packet);
+                for (int seq = 0; seq < perProducer; seq++) {
+                    buffer.putInt(0, producer).putInt(4, seq).putInt(8, ~seq);
+                    while (!queue.offer(packet, 0, packet.length)) {
+                        Thread.yield();
+                    }
+                }
+            }, "Producer" + p);
+            producerThreads.add(thread);
+        }
+
+        int[] nextSeq = new int[producers];
+        LatencyHistogram wakeups = new LatencyHistogram("Handoff");
+        long start = System.nanoTime();
+        for (Thread thread : producerThreads) {
+            thread.start();
+        }
+        try {
+            for (int received = 0; received < producers * perProducer; received++) {
+                int slot = queue.take(TIMEOUT_NANOS, busyPoll);
+                assertTrue("timed out after " + received + " packets", slot >= 0);
+                wakeups.record(System.nanoTime() - queue.publishNanosOf(slot));
+                assertEquals(12, queue.lengthOf(slot));
+                ByteBuffer buffer = ByteBuffer.wrap(queue.getBuffer(), queue.offsetOf(slot), 12);
+                int producer = buffer.getInt();
+                int seq = buffer.getInt();
+                assertEquals(~seq, buffer.getInt());
+                assertEquals("producer " + producer + " reordered or lost", nextSeq[producer], seq);
+                nextSeq[producer]++;
+                queue.release();
+            }
+        } finally {
+            running.set(false);
+        }
+        for (Thread thread : producerThreads) {
+            thread.join();
+        }
+        long elapsed = System.nanoTime() - start;
+
+        assertEquals(-1, queue.peek());
+        for (int p = 0; p < producers; p++) {
+            assertEquals(perProducer, nextSeq[p]);
+        }
+        System.out.println(String.format(Locale.US, "%s: %d packets in %d ms with %d contenders, %d full-queue drops; %s",
+                busyPoll ? "busy-poll" : "park", producers * perProducer, elapsed / 1_000_000,
+                contenders.size(), queue.getDroppedPackets(), wakeups.summary()));
+    }
+}
@@ -0,0 +1,218 @@
+package com.netham45.android_scream_receiver;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+
+public class PolyphaseResamplerTest {
+
+    private static final int[][] RATE_PAIRS = {
+            {48000, 44100}, {44100, 48000}, {48000, 96000}, {96000, 48000}, {44100, 96000}, {96000, 44100},
+    };
+    private static final double AMPLITUDE = 16000;
+    private static final int PACKET_BYTES = 1152; // One Scream packet of 16-bit stereo
+
+    @Test
+    public void supportedRates() {
+        assertTrue(PolyphaseResampler.isSupported(44100, 48000));
+        assertTrue(PolyphaseResampler.isSupported(48000, 48000));
+        assertFalse(PolyphaseResampler.isSupported(48000, 44101)); // L = 44101 phases
+        assertFalse(PolyphaseResampler.isSupported(0, 48000));
+    }
+
+    // A 1 kHz tone on the left and 3 kHz on the right, fed packet by packet; each channel must
+    // match an ideal sine at the output rate with no crosstalk. 16-bit quantization of the
+    // input and output limits this to ~92 dB.
+    @Test
+    public void signalToNoisePerRatePair() {
+        for (int[] pair : RATE_PAIRS) {
+            double[][] out = resampleTones(pair[0], pair[1], new double[]{1000, 3000}, 2);
+            double left = snrDb(out[0], 1000, pair[1]);
+            double right = snrDb(out[1], 3000, pair[1]);
+            System.out.println(String.format(Locale.US, "%d -> %d Hz: SNR %.1f dB (1 kHz), %.1f dB (3 kHz)",
+                    pair[0], pair[1], left, right));
+            assertTrue(pair[0] + " -> " + pair[1] + ": " + left, left > 84);
+            assertTrue(pair[0] + " -> " + pair[1] + ": " + right, right > 84);
+        }
+    }
+
+    // Flat to 86% of the lower Nyquist frequency, -6 dB at CUTOFF (93%)
+    @Test
+    public void passbandIsFlatUpTo86Percent() {
+        for (int[] pair : RATE_PAIRS) {
+            double nyquist = Math.min(pair[0], pair[1]) / 2.0;
+            for (double fraction : new double[]{0.05, 0.3, 0.6, 0.86}) {
+                double gain = gainDb(pair[0], pair[1], fraction * nyquist);
+                assertEquals(pair[0] + " -> " + pair[1] + " at " + fraction, 0, gain, 0.05);
+            }
+            assertEquals(pair[0] + " -> " + pair[1] + " at cutoff", -6.0, gainDb(pair[0], pair[1], 0.93 * nyquist), 0.5);
+        }
+    }
+
+    // When decimating, tones between the output and input Nyquist frequencies would alias back
+    // into the audible band; they must be at least ~70 dB down
+    @Test
+    public void stopbandRejectsAliases() {
+        for (int[] pair : RATE_PAIRS) {
+            if (pair[1] >= pair[0]) {
+                continue;
+            }
+            double outputNyquist = pair[1] / 2.0;
+            double worst = -Double.MAX_VALUE;
+            for (double f = outputNyquist; f < pair[0] / 2.0 * 0.98; f += outputNyquist * 0.02) {
+                worst = Math.max(worst, gainDb(pair[0], pair[1], f));
+            }
+            System.out.println(String.format(Locale.US, "%d -> %d Hz: worst alias %.1f dB", pair[0], pair[1], worst));
+            assertTrue(pair[0] + " -> " + pair[1] + ": " + worst, worst < -70);
+        }
+    }
+
+    @Test
+    public void outputStaysWithinMaxOutputBytes() {
+        Random random = new Random(3);
+        for (int[] pair : RATE_PAIRS) {
+            for (int channels = 1; channels <= 8; channels *= 2) {
+                PolyphaseResampler resampler = new PolyphaseResampler(pair[0], pair[1], channels);
+                int frameBytes = 2 * channels;
+                long inFrames = 0;
+                long outFrames = 0;
+                for (int i = 0; i < 500; i++) {
+                    int length = random.nextInt(6000 / frameBytes) * frameBytes;
+                    byte[] in = new byte[length];
+                    random.nextBytes(in);
+                    int bound = resampler.maxOutputBytes(length);
+                    byte[] out = new byte[bound];
+                    int written = resampler.process(in, 0, length, out, 0);
+                    assertTrue(written + " > " + bound, written <= bound);
+                    assertEquals(0, written % frameBytes);
+                    inFrames += length / frameBytes;
+                    outFrames += written / frameBytes;
+                }
+                // Total output tracks the exact ratio; only the filter delay is outstanding
+                double expected = (double) inFrames * pair[1] / pair[0];
+                assertTrue(pair[0] + " -> " + pair[1] + ": " + outFrames + " vs " + expected,
+                        outFrames <= expected + 1 && outFrames >= expected - 256);
+            }
+        }
+    }
+
+    @Test
+    public void packetBoundariesDontChangeTheOutput() {
+        byte[] in = new byte[48000 / 10 * 4];
+        new Random(5).nextBytes(in);
+        PolyphaseResampler whole = new PolyphaseResampler(48000, 44100, 2);
+        byte[] expected = new byte[whole.maxOutputBytes(in.length)];
+        expected = Arrays.copyOf(expected, whole.process(in, 0, in.length, expected, 0));
+
+        PolyphaseResampler chunked = new PolyphaseResampler(48000, 44100, 2);
+        byte[] actual = new byte[expected.length + 64];
+        int written = 0;
+        for (int offset = 0; offset < in.length; offset += PACKET_BYTES) {
+            int length = Math.min(PACKET_BYTES, in.length - offset);
+            written += chunked.process(in, offset, length, actual, written);
+        }
+        assertArrayEquals(expected, Arrays.copyOf(actual, written));
+
+        // After reset() the resampler starts from scratch
+        chunked.reset();
+        byte[] again = new byte[expected.length + 64];
+        assertArrayEquals(expected, Arrays.copyOf(again, chunked.process(in, 0, in.length, again, 0)));
+    }
+
+    // Throughput on the desktop JVM for 16-bit stereo packets. Prints numbers only.
+    @Test
+    public void benchmarkThroughput() {
+        byte[] packet = new byte[PACKET_BYTES];
+        new Random(9).nextBytes(packet);
+        for (int[] pair : new int[][]{{44100, 48000}, {48000, 44100}, {96000, 48000}}) {
+            PolyphaseResampler resampler = new PolyphaseResampler(pair[0], pair[1], 2);
+            byte[] out = new byte[resampler.maxOutputBytes(PACKET_BYTES)];
+            int iterations = 5000;
+            for (int i = 0; i < iterations; i++) {
+                resampler.process(packet, 0, PACKET_BYTES, out, 0); // Warm-up
+            }
+            long start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                resampler.process(packet, 0, PACKET_BYTES, out, 0);
+            }
+            long elapsed = System.nanoTime() - start;
+            double audioSeconds = (double) iterations * PACKET_BYTES / 4 / pair[0];
+            System.out.println(String.format(Locale.US, "%d -> %d Hz stereo: %.1f us per packet, %.0fx real time",
+                    pair[0], pair[1], elapsed / 1000.0 / iterations, audioSeconds / (elapsed / 1e9)));
+        }
+    }
+
+    // Resamples one tone per channel, fed a packet at a time, and returns the output per channel
+    // with the filter's start-up transient trimmed off
+    private static double[][] resampleTones(int inputRate, int outputRate, double[] frequencies, double seconds) {
+        int channels = frequencies.length;
+        int frames = (int) (inputRate * seconds);
+        byte[] in = new byte[frames * channels * 2];
+        for (int i = 0; i < frames; i++) {
+            for (int ch = 0; ch < channels; ch++) {
+                int sample = (int) Math.round(AMPLITUDE * Math.sin(2 * Math.PI * frequencies[ch] * i / inputRate));
+                in[(i * channels + ch) * 2] = (byte) sample;
+                in[(i * channels + ch) * 2 + 1] = (byte) (sample >> 8);
+            }
+        }
+        PolyphaseResampler resampler = new PolyphaseResampler(inputRate, outputRate, channels);
+        byte[] out = new byte[resampler.maxOutputBytes(in.length) + PACKET_BYTES * 4];
+        int written = 0;
+        for (int offset = 0; offset < in.length; offset += PACKET_BYTES) {
+            written += resampler.process(in, offset, Math.min(PACKET_BYTES, in.length - offset), out, written);
+        }
+        int skip = 1000; // Well past the filter delay
+        int outFrames = written / (channels * 2) - skip;
+        double[][] result = new double[channels][outFrames];
+        for (int i = 0; i < outFrames; i++) {
+            for (int ch = 0; ch < channels; ch++) {
+                int at = ((i + skip) * channels + ch) * 2;
+                result[ch][i] = (short) ((out[at] & 0xFF) | (out[at + 1] << 8));
+            }
+        }
+        return result;
+    }
+
+    // Least-squares fits a sine of the given frequency (any phase) and returns fit power over
+    // residual power
+    private static double snrDb(double[] signal, double frequency, int rate) {
+        double ss = 0, sc = 0, cc = 0, ys = 0, yc = 0;
+        for (int i = 0; i < signal.length; i++) {
+            double s = Math.sin(2 * Math.PI * frequency * i / rate);
+            double c = Math.cos(2 * Math.PI * frequency * i / rate);
+            ss += s * s;
+            sc += s * c;
+            cc += c * c;
+            ys += signal[i] * s;
+            yc += signal[i] * c;
+        }
+        double det = ss * cc - sc * sc;
+        double a = (ys * cc - yc * sc) / det;
+        double b = (yc * ss - ys * sc) / det;
+        double fitPower = 0, noisePower = 0;
+        for (int i = 0; i < signal.length; i++) {
+            double fit = a * Math.sin(2 * Math.PI * frequency * i / rate) + b * Math.cos(2 * Math.PI * frequency * i / rate);
+            fitPower += fit * fit;
+            noisePower += (signal[i] - fit) * (signal[i] - fit);
+        }
+        return 10 * Math.log10(fitPower / noisePower);
+    }
+
+    // Output RMS of a mono tone relative to the input RMS
+    private static double gainDb(int inputRate, int outputRate, double frequency) {
+        double[] out = resampleTones(inputRate, outputRate, new double[]{frequency}, 0.25)[0];
+        double power = 0;
+        for (double sample : out) {
+            power += sample * sample;
+        }
+        double rms = Math.sqrt(power / out.length);
+        return 20 * Math.log10(Math.max(rms, 1e-3) / (AMPLITUDE / Math.sqrt(2)));
+    }
+}
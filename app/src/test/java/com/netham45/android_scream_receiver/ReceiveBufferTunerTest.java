@@ -0,0 +1,97 @@
+package com.netham45.android_scream_receiver;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class ReceiveBufferTunerTest {
+
+    private static final int MIN = 64 * 1024;
+    private static final int MAX = 4 * 1024 * 1024;
+    private static final int INITIAL = 512 * 1024;
+
+    @Test
+    public void initialSizeIsClamped() {
+        assertEquals(MIN, new ReceiveBufferTuner(MIN, MAX, 1).getCurrentBytes());
+        assertEquals(MAX, new ReceiveBufferTuner(MIN, MAX, Integer.MAX_VALUE).getCurrentBytes());
+    }
+
+    @Test
+    public void kernelDropsDoubleTheBuffer() {
+        ReceiveBufferTuner tuner = new ReceiveBufferTuner(MIN, MAX, INITIAL);
+        tuner.onQueueSample(1000, 3);
+        assertEquals(2 * INITIAL, tuner.endWindow());
+        tuner.onQueueSample(0, 1);
+        tuner.onQueueSample(0, 1);
+        assertEquals(4 * INITIAL, tuner.endWindow());
+        tuner.onQueueSample(0, 1);
+        assertEquals(MAX, tuner.endWindow());
+        tuner.onQueueSample(0, 1);
+        assertEquals(MAX, tuner.endWindow());
+    }
+
+    @Test
+    public void growsToCoverQueueAndBursts() {
+        ReceiveBufferTuner tuner = new ReceiveBufferTuner(MIN, MAX, INITIAL);
+        tuner.onQueueSample(400 * 1024, 0);
+        assertEquals(800 * 1024, tuner.endWindow()); // 2x the peak queue
+        tuner.onBurst(300 * 1024);
+        tuner.onBurst(100 * 1024); // Only the window's peak counts
+        assertEquals(1200 * 1024, tuner.endWindow()); // 4x the peak burst
+    }
+
+    @Test
+    public void burstsAloneAreEnoughToGrow() {
+        // Without kernel counters (Android 10+) only bursts are reported
+        ReceiveBufferTuner tuner = new ReceiveBufferTuner(MIN, MAX, INITIAL);
+        tuner.onBurst(64 * 1157);
+        assertEquals(INITIAL, tuner.endWindow()); // 289 KB fits already
+        tuner.onBurst(200 * 1157);
+        assertEquals(4 * 200 * 1157, tuner.endWindow());
+    }
+
+    @Test
+    public void shrinksOnlyAfterConsecutiveQuietWindows() {
+        ReceiveBufferTuner tuner = new ReceiveBufferTuner(MIN, MAX, 1024 * 1024);
+        for (int i = 0; i < 4; i++) {
+            tuner.onBurst(10 * 1024);
+            assertEquals(1024 * 1024, tuner.endWindow());
+        }
+        tuner.onBurst(10 * 1024);
+        assertEquals(512 * 1024, tuner.endWindow()); // Fifth quiet window halves it
+
+        // A busier window in between restarts the count
+        for (int i = 0; i < 4; i++) {
+            tuner.endWindow();
+        }
+        tuner.onBurst(100 * 1024); // Over a quarter of the buffer, not quiet
+        assertEquals(512 * 1024, tuner.endWindow());
+        for (int i = 0; i < 4; i++) {
+            assertEquals(512 * 1024, tuner.endWindow());
+        }
+        assertEquals(256 * 1024, tuner.endWindow());
+    }
+
+    @Test
+    public void growOnlyWindowsNeverShrink() {
+        ReceiveBufferTuner tuner = new ReceiveBufferTuner(MIN, MAX, INITIAL);
+        for (int i = 0; i < 20; i++) {
+            tuner.onBurst(1157); // Steady 6 ms packets, one per burst
+            assertEquals(INITIAL, tuner.endWindow(false));
+        }
+        tuner.onBurst(200 * 1157); // Packets clumped after a stall
+        assertEquals(4 * 200 * 1157, tuner.endWindow(false));
+        for (int i = 0; i < 20; i++) {
+            tuner.onBurst(1157);
+            assertEquals(4 * 200 * 1157, tuner.endWindow(false));
+        }
+    }
+
+    @Test
+    public void neverShrinksBelowTheMinimum() {
+        ReceiveBufferTuner tuner = new ReceiveBufferTuner(MIN, MAX, MIN);
+        for (int i = 0; i < 20; i++) {
+            assertEquals(MIN, tuner.endWindow());
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package com.netham45.android_scream_receiver;
+
+import java.io.ByteArrayOutputStream;
+
+// Test sink that keeps everything written to it and the formats it was configured with
+final class RecordingAudioSink implements AudioSink {
+
+    private final String name;
+    private final ByteArrayOutputStream written = new ByteArrayOutputStream();
+    private final StringBuilder configurations = new StringBuilder();
+    private boolean acceptFormats = true;
+    private int configureCalls = 0;
+    private int channels = 0;
+    private long writeCalls = 0;
+    private boolean paused = false;
+    private boolean released = false;
+
+    RecordingAudioSink(String name) {
+        this.name = name;
+    }
+
+    void setAcceptFormats(boolean acceptFormats) {
+        this.acceptFormats = acceptFormats;
+    }
+
+    @Override
+    public boolean configure(int sampleRate, int channels, int encoding, int bytesPerSample) {
+        configureCalls++;
+        this.channels = channels;
+        configurations.append(sampleRate).append('/').append(channels).append('/').append(encoding)
+                .append('/').append(bytesPerSample).append(';');
+        released = false;
+        return acceptFormats;
+    }
+
+    @Override
+    public void write(byte[] data, int offset, int length) {
+        writeCalls++;
+        written.write(data, offset, length);
+    }
+
+    @Override
+    public void drain() {
+    }
+
+    @Override
+    public void pause() {
+        paused = true;
+    }
+
+    @Override
+    public void resume() {
+        paused = false;
+    }
+
+    @Override
+    public void release() {
+        released = true;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public long getWriteCalls() {
+        return writeCalls;
+    }
+
+    @Override
+    public long getBytesWritten() {
+        return written.size();
+    }
+
+    @Override
+    public long getBytesDropped() {
+        return 0;
+    }
+
+    byte[] getWritten() {
+        return written.toByteArray();
+    }
+
+    String getConfigurations() {
+        return configurations.toString();
+    }
+
+    int getConfigureCalls() {
+        return configureCalls;
+    }
+
+    int getChannels() {
+        return channels;
+    }
+
+    boolean isPaused() {
+        return paused;
+    }
+
+    boolean isReleased() {
+        return released;
+    }
+}
@@ -0,0 +1,45 @@
+package com.netham45.android_scream_receiver;
+
+// Builds Scream datagrams for tests
+final class ScreamPackets {
+
+    static final int RATE_48000 = 0x01; // Header byte 0: 48 kHz base, multiplier 1
+    static final int RATE_44100 = 0x81; // Header byte 0: 44.1 kHz base, multiplier 1
+
+    private ScreamPackets() {
+    }
+
+    // 16-bit packet whose samples encode (seed, frame, channel), so routing mistakes show up
+    static byte[] pcm16(int rateByte, int channels, int frames, int seed) {
+        byte[] packet = header(rateByte, 16, channels, frames * channels * 2);
+        int pos = ScreamReceiverCore.HEADER_SIZE;
+        for (int frame = 0; frame < frames; frame++) {
+            for (int channel = 0; channel < channels; channel++) {
+                int sample = (seed * 7919 + frame * 31 + channel * 1000) & 0x7FFF;
+                packet[pos++] = (byte) sample;
+                packet[pos++] = (byte) (sample >> 8);
+            }
+        }
+        return packet;
+    }
+
+    // 16-bit packet of digital silence
+    static byte[] silence16(int rateByte, int channels, int frames) {
+        return header(rateByte, 16, channels, frames * channels * 2);
+    }
+
+    static byte[] header(int rateByte, int bitDepth, int channels, int payloadBytes) {
+        byte[] packet = new byte[ScreamReceiverCore.HEADER_SIZE + payloadBytes];
+        packet[0] = (byte) rateByte;
+        packet[1] = (byte) bitDepth;
+        packet[2] = (byte) channels;
+        return packet;
+    }
+
+    // PCM payload of a packet
+    static byte[] payload(byte[] packet) {
+        byte[] pcm = new byte[packet.length - ScreamReceiverCore.HEADER_SIZE];
+        System.arraycopy(packet, ScreamReceiverCore.HEADER_SIZE, pcm, 0, pcm.length);
+        return pcm;
+    }
+}
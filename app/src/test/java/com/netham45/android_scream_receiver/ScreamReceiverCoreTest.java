@@ -0,0 +1,153 @@
+package com.netham45.android_scream_receiver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class ScreamReceiverCoreTest {
+
+    private static final long TIMEOUT_NANOS = 5_000_000_000L;
+    private static final long MS = 1_000_000L;
+
+    private RecordingAudioSink sink;
+    private ScreamReceiverCore core;
+    private final StringBuilder events = new StringBuilder();
+
+    @Before
+    public void setUp() {
+        sink = new RecordingAudioSink("sink");
+        ChannelRouter router = new ChannelRouter();
+        router.addRoute(null, sink);
+        core = new ScreamReceiverCore(router, TIMEOUT_NANOS, new ScreamReceiverCore.Listener() {
+            @Override
+            public void onSleep() {
+                events.append("sleep;");
+            }
+
+            @Override
+            public void onWake() {
+                events.append("wake;");
+            }
+
+            @Override
+            public void onFormatChanged(int sampleRate, int channels, int bitDepth, int activeRoutes, int routeCount) {
+            }
+
+            @Override
+            public void onPacketRejected(String reason) {
+                events.append("rejected;");
+            }
+        });
+    }
+
+    private void process(byte[] packet, long nowNanos) {
+        core.process(packet, 0, packet.length, nowNanos);
+        core.checkInactivity(nowNanos);
+    }
+
+    private static byte[] audio(int seed) {
+        return ScreamPackets.pcm16(ScreamPackets.RATE_48000, 2, 240, seed);
+    }
+
+    private static byte[] silence() {
+        return ScreamPackets.silence16(ScreamPackets.RATE_48000, 2, 240);
+    }
+
+    @Test
+    public void sustainedSilenceSleepsAndPausesTheSinks() {
+        process(audio(1), 0);
+        long written = sink.getBytesWritten();
+        for (long t = 5 * MS; t < TIMEOUT_NANOS; t += 5 * MS) {
+            process(silence(), t); // Silence is still played until the timeout
+        }
+        assertFalse(core.isSleeping());
+        assertFalse(sink.isPaused());
+        long beforeSleep = sink.getBytesWritten();
+        assertTrue(beforeSleep > written);
+
+        process(silence(), TIMEOUT_NANOS);
+        assertTrue(core.isSleeping());
+        assertTrue(sink.isPaused());
+        assertEquals("sleep;", events.toString());
+
+        process(silence(), TIMEOUT_NANOS + 5 * MS);
+        assertEquals(beforeSleep + 960, sink.getBytesWritten()); // Only the packet that timed out was written
+    }
+
+    @Test
+    public void idleRenderLoopAlsoSleeps() {
+        core.checkInactivity(0);
+        core.checkInactivity(TIMEOUT_NANOS - 1);
+        assertFalse(core.isSleeping());
+        core.checkInactivity(TIMEOUT_NANOS); // No packets at all
+        assertTrue(core.isSleeping());
+        assertEquals("sleep;", events.toString());
+    }
+
+    @Test
+    public void firstNonSilentPacketWakesAndIsPlayed() {
+        process(audio(1), 0);
+        core.checkInactivity(TIMEOUT_NANOS);
+        process(silence(), TIMEOUT_NANOS + MS);
+        long written = sink.getBytesWritten();
+
+        byte[] packet = audio(2);
+        process(packet, TIMEOUT_NANOS + 2 * MS);
+        assertFalse(core.isSleeping());
+        assertFalse(sink.isPaused());
+        assertEquals(written + packet.length - ScreamReceiverCore.HEADER_SIZE, sink.getBytesWritten());
+        assertEquals("sleep;wake;", events.toString());
+    }
+
+    @Test
+    public void activityRestartsTheTimeout() {
+        process(audio(1), 0);
+        process(audio(2), TIMEOUT_NANOS - MS);
+        core.checkInactivity(TIMEOUT_NANOS + MS);
+        assertFalse(core.isSleeping());
+        core.checkInactivity(2 * TIMEOUT_NANOS - MS);
+        assertTrue(core.isSleeping());
+    }
+
+    @Test
+    public void wakeRequestFromAnotherThreadIsAppliedByTheLoop() throws InterruptedException {
+        core.checkInactivity(0);
+        core.checkInactivity(TIMEOUT_NANOS);
+        assertTrue(sink.isPaused() || sink.getConfigureCalls() == 0);
+
+        Thread other = new Thread(core::requestWake);
+        other.start();
+        other.join();
+        assertTrue(core.isSleeping()); // Nothing changes until the render loop runs
+        core.checkInactivity(TIMEOUT_NANOS + MS);
+        assertFalse(core.isSleeping());
+        assertEquals("sleep;wake;", events.toString());
+        core.checkInactivity(2 * TIMEOUT_NANOS); // The timeout restarted at the wake
+        assertFalse(core.isSleeping());
+    }
+
+    @Test
+    public void sleepingLoopParksEvenWithBusyPollEnabled() {
+        process(audio(1), 0);
+        assertTrue(core.shouldBusyPoll(true));
+        assertFalse(core.shouldBusyPoll(false));
+        core.checkInactivity(TIMEOUT_NANOS);
+        assertTrue(core.isSleeping());
+        assertFalse(core.shouldBusyPoll(true)); // Wake and Wi-Fi locks are released; don't spin
+        process(audio(2), TIMEOUT_NANOS + MS);
+        assertTrue(core.shouldBusyPoll(true));
+    }
+
+    @Test
+    public void badPacketsAreRejected() {
+        core.process(new byte[4], 0, 4, 0);
+        byte[] packet = ScreamPackets.header(ScreamPackets.RATE_48000, 20, 2, 16);
+        packet[10] = 1;
+        core.process(packet, 0, packet.length, 0);
+        assertEquals("rejected;rejected;", events.toString());
+        assertEquals(0, sink.getBytesWritten());
+    }
+}
@@ -0,0 +1,118 @@
+package com.netham45.android_scream_receiver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.Locale;
+
+public class SilenceDetectorTest {
+
+    @Test
+    public void zeroRangesAreSilentAtEveryLengthAndOffset() {
+        byte[] data = new byte[300];
+        for (int offset = 0; offset < 70; offset++) {
+            for (int length = 0; offset + length <= data.length; length += 7) {
+                assertTrue(SilenceDetector.isAllZero(data, offset, length));
+            }
+        }
+    }
+
+    @Test
+    public void anyNonZeroByteInRangeIsDetected() {
+        byte[] data = new byte[300];
+        for (int position = 0; position < data.length; position++) {
+            for (byte value : new byte[]{1, -128, (byte) 0x80, 0x7F}) {
+                data[position] = value;
+                assertFalse("missed byte at " + position, SilenceDetector.isAllZero(data, 0, data.length));
+                data[position] = 0;
+            }
+        }
+    }
+
+    @Test
+    public void bytesOutsideTheRangeAreIgnored() {
+        byte[] data = new byte[200];
+        data[9] = 1;
+        data[110] = 1;
+        assertTrue(SilenceDetector.isAllZero(data, 10, 100));
+        assertFalse(SilenceDetector.isAllZero(data, 10, 101));
+        assertFalse(SilenceDetector.isAllZero(data, 9, 100));
+    }
+
+    @Test
+    public void countsPacketsChecked() {
+        SilenceDetector detector = new SilenceDetector();
+        byte[] packet = new byte[64];
+        assertTrue(detector.isSilent(packet, 0, packet.length));
+        packet[63] = 5;
+        assertFalse(detector.isSilent(packet, 0, packet.length));
+        assertEquals(2, detector.getPacketsChecked());
+        assertEquals(1, detector.getSilentPackets());
+    }
+
+    @Test
+    public void isSilentFollowsTheArrayItIsGiven() {
+        SilenceDetector detector = new SilenceDetector();
+        byte[] loud = new byte[1157];
+        loud[1156] = 1;
+        byte[] quiet = new byte[1157];
+        for (int i = 0; i < 3; i++) {
+            assertFalse(detector.isSilent(loud, 5, 1152));
+            assertTrue(detector.isSilent(quiet, 5, 1152));
+            assertTrue(detector.isSilent(loud, 3, 1152)); // Unaligned range ending before the sample
+        }
+    }
+
+    // Microbenchmark of the per-packet cost on a typical 1152-byte stereo payload, through the
+    // render path's isSilent() with a naive byte loop as the baseline. Prints numbers only;
+    // timing isn't asserted so it can't be flaky.
+    @Test
+    public void benchmarkIsAllZero() {
+        byte[] packet = new byte[1152];
+        int iterations = 200_000;
+        int silent = 0;
+        for (int warmup = 0; warmup < 3; warmup++) {
+            silent += runDetector(packet, iterations) + runNaive(packet, iterations);
+        }
+        long start = System.nanoTime();
+        silent += runDetector(packet, iterations);
+        long detector = System.nanoTime() - start;
+        start = System.nanoTime();
+        silent += runNaive(packet, iterations);
+        long naive = System.nanoTime() - start;
+        assertEquals(8 * iterations, silent);
+        System.out.println(String.format(Locale.US, "isAllZero, 1152-byte silent packet: %.1f ns (naive loop %.1f ns)",
+                (double) detector / iterations, (double) naive / iterations));
+    }
+
+    private static int runDetector(byte[] packet, int iterations) {
+        SilenceDetector detector = new SilenceDetector();
+        int silent = 0;
+        for (int i = 0; i < iterations; i++) {
+            if (detector.isSilent(packet, 0, packet.length)) {
+                silent++;
+            }
+        }
+        return silent;
+    }
+
+    private static int runNaive(byte[] packet, int iterations) {
+        int silent = 0;
+        for (int i = 0; i < iterations; i++) {
+            boolean zero = true;
+            for (int j = 0; j < packet.length; j++) {
+                if (packet[j] != 0) {
+                    zero = false;
+                    break;
+                }
+            }
+            if (zero) {
+                silent++;
+            }
+        }
+        return silent;
+    }
+}
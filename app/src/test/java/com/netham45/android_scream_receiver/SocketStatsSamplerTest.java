@@ -0,0 +1,199 @@
+package com.netham45.android_scream_receiver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.SocketTimeoutException;
+import java.util.Locale;
+
+public class SocketStatsSamplerTest {
+
+    private static final int MIN = 64 * 1024;
+    private static final int MAX = 4 * 1024 * 1024;
+    private static final int INITIAL = 512 * 1024;
+    private static final long WINDOW_MS = 5000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void burstsAloneTuneTheBufferWhenProcIsUnreadable() {
+        UdpSocketStats blocked = new UdpSocketStats(new File[]{new File(folder.getRoot(), "udp")}, 4010, 5);
+        ReceiveBufferTuner tuner = new ReceiveBufferTuner(MIN, MAX, INITIAL);
+        SocketStatsSampler sampler = new SocketStatsSampler(blocked, tuner, WINDOW_MS);
+
+        assertEquals(0, sampler.poll(1000)); // Starts the first window
+        assertFalse(sampler.isKernelStatsAvailable());
+        assertNotNull(sampler.getKernelStatsError());
+
+        sampler.onBurst(100_000);
+        sampler.onBurst(300_000);
+        sampler.onBurst(200_000);
+        assertEquals(0, sampler.poll(3000));
+        assertEquals(1_200_000, sampler.poll(6000)); // 4x the window's peak burst
+        assertEquals(0, sampler.poll(7000));
+        assertEquals(1_200_000, sampler.poll(11000)); // Window closed, nothing new
+        assertEquals(0, sampler.getKernelDropsTotal());
+    }
+
+    // Regression: with /proc unreadable, normal playback (one 1157-byte packet every 6 ms) used
+    // to look quiet and step the buffer down 512 -> 256 -> 128 -> 64 KB in about 75 s
+    @Test
+    public void steadyPlaybackWithoutKernelStatsKeepsTheInitialBuffer() {
+        UdpSocketStats blocked = new UdpSocketStats(new File[]{new File(folder.getRoot(), "udp")}, 4010, 5);
+        SocketStatsSampler sampler = new SocketStatsSampler(blocked, new ReceiveBufferTuner(MIN, MAX, INITIAL), WINDOW_MS);
+        sampler.poll(0);
+        for (long now = 250; now <= 300_000; now += 250) {
+            sampler.onBurst(1157);
+            int size = sampler.poll(now);
+            if (size != 0) {
+                assertEquals("at " + now + " ms", INITIAL, size);
+            }
+        }
+    }
+
+    @Test
+    public void steadyPlaybackWithKernelStatsStillShrinks() throws IOException {
+        File udp = folder.newFile("udp");
+        writeProc(udp, 0, 0);
+        SocketStatsSampler sampler = new SocketStatsSampler(new UdpSocketStats(new File[]{udp}, 4010, 5),
+                new ReceiveBufferTuner(MIN, MAX, INITIAL), WINDOW_MS);
+        sampler.poll(0);
+        int size = INITIAL;
+        for (long now = 250; now <= 300_000; now += 250) {
+            sampler.onBurst(1157);
+            int windowSize = sampler.poll(now);
+            size = windowSize != 0 ? windowSize : size;
+        }
+        assertEquals(MIN, size); // Drops would be seen, so a small buffer is safe to try
+    }
+
+    @Test
+    public void kernelDropsAndQueueFeedTheTuner() throws IOException {
+        File udp = folder.newFile("udp");
+        UdpSocketStats stats = new UdpSocketStats(new File[]{udp}, 4010, 5);
+        SocketStatsSampler sampler = new SocketStatsSampler(stats, new ReceiveBufferTuner(MIN, MAX, INITIAL), WINDOW_MS);
+
+        writeProc(udp, 0x1000, 0); // Fresh socket
+        assertEquals(0, sampler.poll(0));
+        writeProc(udp, 0x8000, 3);
+        assertEquals(0, sampler.poll(250));
+        assertEquals(3, sampler.getKernelDropsTotal());
+        writeProc(udp, 0, 2); // Socket rebuilt, counter restarted below the last value
+        assertEquals(2 * INITIAL, sampler.poll(5000)); // Drops in the window double the buffer
+        assertEquals(5, sampler.getKernelDropsTotal());
+        assertEquals(0x8000, sampler.getAndResetPeakQueueBytes());
+        assertEquals(0, sampler.getAndResetPeakQueueBytes());
+        assertTrue(sampler.isKernelStatsAvailable());
+    }
+
+    @Test
+    public void concurrentBurstReportsKeepTheMaximum() throws InterruptedException {
+        ReceiveBufferTuner tuner = new ReceiveBufferTuner(MIN, MAX, MIN);
+        SocketStatsSampler sampler = new SocketStatsSampler(null, tuner, WINDOW_MS);
+        sampler.poll(0);
+        Thread receive = new Thread(() -> {
+            for (int i = 0; i <= 500_000; i++) {
+                sampler.onBurst(i);
+            }
+        });
+        receive.start();
+        for (int i = 0; i < 1000; i++) {
+            sampler.poll(1); // Sampler polling while bursts are reported
+        }
+        receive.join();
+        assertEquals(4 * 500_000, sampler.poll(WINDOW_MS));
+    }
+
+    // End to end on the loopback interface: bursts that overflow a small socket buffer while the
+    // reader is stalled show up as kernel drops in /proc/net/udp for our uid and port, and the
+    // next window doubles the buffer. Skipped where /proc/net/udp can't be read.
+    @Test
+    public void loopbackOverflowIsSeenAsKernelDrops() throws Exception {
+        File procUdp = UdpSocketStats.DEFAULT_PROC_FILES[0];
+        assumeTrue(procUdp.canRead());
+        int uid = currentUid();
+        assumeTrue(uid >= 0);
+
+        try (DatagramSocket receiver = new DatagramSocket(0, InetAddress.getLoopbackAddress())) {
+            receiver.setReceiveBufferSize(16 * 1024);
+            receiver.setSoTimeout(200);
+            int port = receiver.getLocalPort();
+            UdpSocketStats stats = new UdpSocketStats(UdpSocketStats.DEFAULT_PROC_FILES, port, uid);
+            ReceiveBufferTuner tuner = new ReceiveBufferTuner(MIN, MAX, INITIAL);
+            SocketStatsSampler sampler = new SocketStatsSampler(stats, tuner, WINDOW_MS);
+            assertEquals(0, sampler.poll(0));
+            assertEquals(1, stats.getSocketCount());
+
+            try (LoopbackLoadGenerator generator = new LoopbackLoadGenerator(port)) {
+                generator.sendBursts(10, 64, 5); // Reader stalled: far more than 16 KB queued
+                assertEquals(0, sampler.poll(250));
+                assertTrue(stats.getRxQueueBytes() > 0);
+                long drops = sampler.getKernelDropsTotal();
+                assertTrue("no kernel drops", drops > 0);
+
+                // Drain what the kernel kept, tracking bursts the way the receive loop does
+                DatagramPacket packet = new DatagramPacket(new byte[2048], 2048);
+                long received = 0;
+                long burstBytes = 0;
+                try {
+                    while (true) {
+                        receiver.receive(packet);
+                        received++;
+                        burstBytes += packet.getLength();
+                        sampler.onBurst(burstBytes);
+                    }
+                } catch (SocketTimeoutException e) {
+                    // Drained
+                }
+                assertTrue(received > 0);
+                assertEquals(generator.getPacketsSent(), received + drops);
+                assertEquals(2 * INITIAL, sampler.poll(WINDOW_MS));
+                System.out.println(String.format(Locale.US,
+                        "loopback: %d sent, %d received, %d kernel drops with a 16 KB buffer; SO_RCVBUF target %d",
+                        generator.getPacketsSent(), received, drops, tuner.getCurrentBytes()));
+            }
+        }
+    }
+
+    private static void writeProc(File file, int rxQueue, long drops) throws IOException {
+        try (Writer writer = new FileWriter(file)) {
+            writer.write("   sl  local_address rem_address   st tx_queue rx_queue tr tm->when retrnsmt   uid  timeout inode ref pointer drops\n");
+            writer.write(String.format("  3: 00000000:0FAA 00000000:0000 07 00000000:%08X 00:00000000 00000000     5        0 777 2 0000000000000000 %d\n",
+                    rxQueue, drops));
+        }
+    }
+
+    // Real uid of this process from /proc/self/status, or -1
+    private static int currentUid() throws IOException {
+        File status = new File("/proc/self/status");
+        if (!status.canRead()) {
+            return -1;
+        }
+        try (BufferedReader reader = new BufferedReader(new FileReader(status))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith("Uid:")) {
+                    return Integer.parseInt(line.substring(4).trim().split("\\s+")[0]);
+                }
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,243 @@
+package com.netham45.android_scream_receiver;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+
+// Records traces with PacketTraceRecorder and replays them through ScreamReceiverCore
+public class TraceReplayTest {
+
+    private static final long PACKET_SPACING_NANOS = 5_000_000L;
+    private static final long INACTIVITY_TIMEOUT_NANOS = 100_000_000L;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    // Core listener that keeps a log of everything it was told
+    private static final class EventLog implements ScreamReceiverCore.Listener {
+        final StringBuilder events = new StringBuilder();
+
+        @Override
+        public void onSleep() {
+            events.append("sleep;");
+        }
+
+        @Override
+        public void onWake() {
+            events.append("wake;");
+        }
+
+        @Override
+        public void onFormatChanged(int sampleRate, int channels, int bitDepth, int activeRoutes, int routeCount) {
+            events.append("format ").append(sampleRate).append('/').append(channels).append('/').append(bitDepth)
+                    .append(' ').append(activeRoutes).append('/').append(routeCount).append(';');
+        }
+
+        @Override
+        public void onPacketRejected(String reason) {
+            events.append("rejected;");
+        }
+    }
+
+    private File record(List<byte[]> packets) throws IOException {
+        File file = folder.newFile("trace.scrt");
+        PacketTraceRecorder recorder = new PacketTraceRecorder(file, 1024);
+        InetAddress source = InetAddress.getByName("192.168.1.20");
+        for (int i = 0; i < packets.size(); i++) {
+            byte[] packet = packets.get(i);
+            recorder.record(packet, 0, packet.length, source, 4011, 1_000_000_000L + i * PACKET_SPACING_NANOS);
+        }
+        recorder.close();
+        assertEquals(null, recorder.getWriteError());
+        assertEquals(0, recorder.getDroppedPackets());
+        assertEquals(packets.size(), recorder.getRecordedPackets());
+        return file;
+    }
+
+    private static long replay(File file, boolean realTime, ScreamReceiverCore core) throws IOException {
+        return new PacketTraceReplayer(file, realTime).replay(
+                (data, offset, length, source, sourcePort, arrivalNanos) -> core.process(data, offset, length, arrivalNanos));
+    }
+
+    @Test
+    public void sourceAddressesFollowTheSender() throws IOException {
+        File file = folder.newFile("sources.scrt");
+        PacketTraceRecorder recorder = new PacketTraceRecorder(file, 64);
+        InetAddress[] sources = {
+                InetAddress.getByName("192.168.1.20"),
+                InetAddress.getByName("192.168.1.20"), // Equal but not the same instance
+                InetAddress.getByName("10.0.0.7"),
+                InetAddress.getByName("fe80::1"),
+                null,
+                InetAddress.getByName("192.168.1.20"),
+        };
+        byte[] packet = ScreamPackets.pcm16(ScreamPackets.RATE_48000, 2, 288, 1);
+        for (int i = 0; i < sources.length; i++) {
+            recorder.record(packet, 0, packet.length, sources[i], 4011 + i, i);
+        }
+        recorder.close();
+        assertEquals(sources.length, recorder.getRecordedPackets());
+
+        List<InetAddress> replayed = new ArrayList<>();
+        List<Integer> ports = new ArrayList<>();
+        new PacketTraceReplayer(file, false).replay((data, offset, length, source, sourcePort, arrivalNanos) -> {
+            replayed.add(source);
+            ports.add(sourcePort);
+        });
+        assertEquals(sources.length, replayed.size());
+        for (int i = 0; i < sources.length; i++) {
+            assertEquals(sources[i], replayed.get(i));
+            assertEquals(4011 + i, (int) ports.get(i));
+        }
+    }
+
+    @Test
+    public void replayDeliversEveryPacketToTheSink() throws IOException {
+        List<byte[]> packets = new ArrayList<>();
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        for (int i = 0; i < 200; i++) {
+            byte[] packet = i % 10 == 9 ? ScreamPackets.silence16(ScreamPackets.RATE_48000, 2, 288)
+                    : ScreamPackets.pcm16(ScreamPackets.RATE_48000, 2, 288, i);
+            packets.add(packet);
+            expected.write(packet, ScreamReceiverCore.HEADER_SIZE, packet.length - ScreamReceiverCore.HEADER_SIZE);
+        }
+        File trace = record(packets);
+
+        RecordingAudioSink sink = new RecordingAudioSink("all");
+        ChannelRouter router = new ChannelRouter();
+        router.addRoute(null, sink);
+        EventLog log = new EventLog();
+        ScreamReceiverCore core = new ScreamReceiverCore(router, INACTIVITY_TIMEOUT_NANOS, log);
+
+        assertEquals(200, replay(trace, false, core));
+        assertArrayEquals(expected.toByteArray(), sink.getWritten());
+        assertEquals("format 48000/2/16 1/1;", log.events.toString());
+        assertEquals(200, core.getPacketsPlayed());
+        assertEquals(200L * 6_000_000L, core.getAudioNanosPlayed()); // 288 frames at 48 kHz = 6 ms
+    }
+
+    @Test
+    public void replayIsDeterministic() throws IOException {
+        List<byte[]> packets = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            // Format changes mid-stream, plus a runt and an unsupported bit depth
+            int rate = i < 50 ? ScreamPackets.RATE_48000 : ScreamPackets.RATE_44100;
+            packets.add(ScreamPackets.pcm16(rate, i < 70 ? 2 : 4, 240, i));
+        }
+        packets.add(40, new byte[3]);
+        packets.add(60, ScreamPackets.header(ScreamPackets.RATE_48000, 12, 2, 64));
+        File trace = record(packets);
+
+        String firstEvents = null;
+        byte[] firstOutput = null;
+        for (int run = 0; run < 2; run++) {
+            RecordingAudioSink sink = new RecordingAudioSink("front");
+            ChannelRouter router = new ChannelRouter();
+            router.addRoute(new int[]{0, 1}, sink);
+            EventLog log = new EventLog();
+            ScreamReceiverCore core = new ScreamReceiverCore(router, INACTIVITY_TIMEOUT_NANOS, log);
+            assertEquals(102, replay(trace, false, core));
+            if (run == 0) {
+                firstEvents = log.events.toString();
+                firstOutput = sink.getWritten();
+                assertEquals("format 48000/2/16 1/1;rejected;format 44100/2/16 1/1;rejected;format 44100/4/16 1/1;",
+                        firstEvents);
+                assertEquals(100 * 240 * 2 * 2, firstOutput.length); // Front pair only
+            } else {
+                assertEquals(firstEvents, log.events.toString());
+                assertArrayEquals(firstOutput, sink.getWritten());
+            }
+        }
+    }
+
+    @Test
+    public void replaySplitsChannelsAcrossSinks() throws IOException {
+        List<byte[]> packets = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            packets.add(ScreamPackets.pcm16(ScreamPackets.RATE_48000, 4, 96, i));
+        }
+        File trace = record(packets);
+
+        RecordingAudioSink front = new RecordingAudioSink("front");
+        RecordingAudioSink rear = new RecordingAudioSink("rear");
+        ChannelRouter router = new ChannelRouter();
+        router.addRoute(new int[]{0, 1}, front);
+        router.addRoute(new int[]{2, 3}, rear);
+        ScreamReceiverCore core = new ScreamReceiverCore(router, INACTIVITY_TIMEOUT_NANOS, new EventLog());
+        replay(trace, false, core);
+
+        byte[] frontBytes = front.getWritten();
+        byte[] rearBytes = rear.getWritten();
+        assertEquals(20 * 96 * 4, frontBytes.length);
+        assertEquals(20 * 96 * 4, rearBytes.length);
+        for (int i = 0; i < 20; i++) {
+            byte[] pcm = ScreamPackets.payload(packets.get(i));
+            for (int frame = 0; frame < 96; frame++) {
+                for (int b = 0; b < 4; b++) {
+                    int out = (i * 96 + frame) * 4 + b;
+                    assertEquals(pcm[frame * 8 + b], frontBytes[out]);
+                    assertEquals(pcm[frame * 8 + 4 + b], rearBytes[out]);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void sleepFollowsCapturedTimestampsEvenWhenReplayedFast() throws IOException {
+        // 10 packets of audio, 40 of silence (200 ms at 5 ms spacing), then audio again
+        List<byte[]> packets = new ArrayList<>();
+        for (int i = 0; i < 55; i++) {
+            packets.add(i >= 10 && i < 50 ? ScreamPackets.silence16(ScreamPackets.RATE_48000, 2, 240)
+                    : ScreamPackets.pcm16(ScreamPackets.RATE_48000, 2, 240, i));
+        }
+        File trace = record(packets);
+
+        RecordingAudioSink sink = new RecordingAudioSink("all");
+        ChannelRouter router = new ChannelRouter();
+        router.addRoute(null, sink);
+        EventLog log = new EventLog();
+        ScreamReceiverCore core = new ScreamReceiverCore(router, INACTIVITY_TIMEOUT_NANOS, log);
+        new PacketTraceReplayer(trace, false).replay((data, offset, length, source, sourcePort, arrivalNanos) -> {
+            core.process(data, offset, length, arrivalNanos);
+            core.checkInactivity(arrivalNanos);
+        });
+
+        assertEquals("format 48000/2/16 1/1;sleep;wake;", log.events.toString());
+        // The last audio packet is #9 (t = 45 ms), so sleep starts at #29 (t = 145 ms); silent
+        // packets #10-#29 are played, #30-#49 are dropped
+        int packetPcm = 240 * 2 * 2;
+        assertEquals((10 + 20 + 5) * packetPcm, sink.getWritten().length);
+        assertFalse(sink.isPaused());
+    }
+
+    @Test
+    public void realTimeReplayKeepsOriginalSpacing() throws IOException {
+        List<byte[]> packets = new ArrayList<>();
+        for (int i = 0; i < 21; i++) {
+            packets.add(ScreamPackets.pcm16(ScreamPackets.RATE_48000, 2, 240, i));
+        }
+        File trace = record(packets);
+        long[] deliveredAt = new long[packets.size()];
+        int[] count = {0};
+        long start = System.nanoTime();
+        new PacketTraceReplayer(trace, true).replay(
+                (data, offset, length, source, sourcePort, arrivalNanos) -> deliveredAt[count[0]++] = System.nanoTime());
+        assertEquals(21, count[0]);
+        // Never early: packet i is due i * 5 ms after the replay started
+        for (int i = 1; i < deliveredAt.length; i++) {
+            assertTrue("packet " + i + " delivered early", deliveredAt[i] - start >= i * PACKET_SPACING_NANOS);
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package com.netham45.android_scream_receiver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+
+public class UdpSocketStatsTest {
+
+    private static final String HEADER =
+            "   sl  local_address rem_address   st tx_queue rx_queue tr tm->when retrnsmt   uid  timeout inode ref pointer drops\n";
+    private static final int PORT = 4010; // 0x0FAA
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File procFile(String name, String... lines) throws IOException {
+        File file = folder.newFile(name);
+        try (Writer writer = new FileWriter(file)) {
+            writer.write(HEADER);
+            for (String line : lines) {
+                writer.write(line);
+                writer.write('\n');
+            }
+        }
+        return file;
+    }
+
+    private static String line(String localAddress, int rxQueue, int uid, long drops) {
+        return String.format("  12: %s 00000000:0000 07 00000000:%08X 00:00000000 00000000 %5d        0 4242 2 0000000000000000 %d",
+                localAddress, rxQueue, uid, drops);
+    }
+
+    @Test
+    public void sumsOurSocketsAcrossIpv4AndIpv6() throws IOException {
+        File udp = procFile("udp",
+                line("00000000:0FAA", 0x1200, 10123, 3),
+                line("0100007F:0FAB", 0x9999, 10123, 99)); // Other port
+        File udp6 = procFile("udp6",
+                line("00000000000000000000000000000000:0FAA", 0x0400, 10123, 2));
+        UdpSocketStats stats = new UdpSocketStats(new File[]{udp, udp6}, PORT, 10123);
+        stats.sample();
+        assertEquals(2, stats.getSocketCount());
+        assertEquals(0x1600, stats.getRxQueueBytes());
+        assertEquals(5, stats.getDrops());
+    }
+
+    @Test
+    public void otherAppsSocketsOnTheSamePortAreIgnored() throws IOException {
+        File udp = procFile("udp",
+                line("00000000:0FAA", 0x100, 10123, 1),
+                line("00000000:0FAA", 0x5000, 10200, 40), // Another receiver app
+                line("00000000:0FAA", 0x10, 0, 7)); // A root daemon
+        UdpSocketStats ours = new UdpSocketStats(new File[]{udp}, PORT, 10123);
+        ours.sample();
+        assertEquals(1, ours.getSocketCount());
+        assertEquals(0x100, ours.getRxQueueBytes());
+        assertEquals(1, ours.getDrops());
+
+        UdpSocketStats all = new UdpSocketStats(new File[]{udp}, PORT, UdpSocketStats.ANY_UID);
+        all.sample();
+        assertEquals(3, all.getSocketCount());
+        assertEquals(48, all.getDrops());
+    }
+
+    @Test
+    public void missingFilesAreSkipped() throws IOException {
+        File udp = procFile("udp", line("00000000:0FAA", 0x20, 5, 0));
+        UdpSocketStats stats = new UdpSocketStats(new File[]{udp, new File(folder.getRoot(), "udp6")}, PORT, 5);
+        stats.sample();
+        assertEquals(0x20, stats.getRxQueueBytes());
+    }
+
+    @Test(expected = IOException.class)
+    public void unreadableProcThrows() throws IOException {
+        // What Android 10+ apps see for /proc/net
+        new UdpSocketStats(new File[]{new File(folder.getRoot(), "udp"), new File(folder.getRoot(), "udp6")}, PORT, 5).sample();
+    }
+
+    @Test
+    public void malformedFileThrowsAndKeepsTheLastSample() throws IOException {
+        File udp = procFile("udp", line("00000000:0FAA", 0x20, 5, 4));
+        UdpSocketStats stats = new UdpSocketStats(new File[]{udp}, PORT, 5);
+        stats.sample();
+        try (Writer writer = new FileWriter(udp)) {
+            writer.write(HEADER + line("00000000:0FAA", 0x30, 5, 9).replace(" 9", " x"));
+        }
+        try {
+            stats.sample();
+            fail("accepted a malformed drop counter");
+        } catch (IOException expected) {
+            // Reported like an unreadable file
+        }
+        assertEquals(4, stats.getDrops());
+        assertEquals(0x20, stats.getRxQueueBytes());
+    }
+}